@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+
+/**
+ * Connection settings applied to every request sent to the CenturyLink endpoint. Each value is
+ * resolved per operation, where the operation is the API resource without its <code>/JSON</code>
+ * suffix (for example <code>Server/GetServer</code>), in this order:
+ * <ol>
+ * <li>the custom property <code>&lt;name&gt;.&lt;operation&gt;</code>, e.g.
+ * <code>readTimeout.Server/GetServer</code></li>
+ * <li>the built-in value for the operation</li>
+ * <li>the custom property <code>&lt;name&gt;</code></li>
+ * <li>the driver default</li>
+ * </ol>
+ * <p>
+ * Supported names are <code>connectTimeout</code>, <code>readTimeout</code>,
+ * <code>requestTimeout</code>, <code>connectionRequestTimeout</code> and
+ * <code>streamIdleTimeout</code>, all in milliseconds. The request timeout is a deadline for the
+ * whole exchange, including reading the response body; zero disables it. The connection request
+ * timeout bounds the wait for a pooled connection, so that an exhausted pool fails the call instead
+ * of blocking it. The stream idle timeout aborts a streamed response that is left unread for that
+ * long; zero disables it. The <code>proxyHost</code>,
+ * <code>proxyPort</code> and <code>userAgent</code> custom properties are honored as well.
+ * </p>
+ * <p>
+ * A configuration reflects the context it was built from; {@link Tier3} builds a new one when its
+ * context changes. The parsers shared with {@link Tier3#getIntProperty(String, int)} and
+ * {@link Tier3#getBooleanProperty(String, boolean)} live here as well.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+class APIClientConfig {
+    static private final Logger logger = Tier3.getLogger(APIClientConfig.class);
+
+    static public final String CONNECT_TIMEOUT = "connectTimeout";
+    static public final String READ_TIMEOUT = "readTimeout";
+    static public final String REQUEST_TIMEOUT = "requestTimeout";
+    static public final String CONNECTION_REQUEST_TIMEOUT = "connectionRequestTimeout";
+    static public final String STREAM_IDLE_TIMEOUT = "streamIdleTimeout";
+    static public final String PROXY_HOST = "proxyHost";
+    static public final String PROXY_PORT = "proxyPort";
+    static public final String USER_AGENT = "userAgent";
+
+    static private final Map<String, Integer> defaults = new HashMap<String, Integer>();
+
+    static {
+        defaults.put(CONNECT_TIMEOUT, 10000);
+        defaults.put(READ_TIMEOUT, 300000);
+        defaults.put(REQUEST_TIMEOUT, 600000);
+        defaults.put(CONNECTION_REQUEST_TIMEOUT, 30000);
+        defaults.put(STREAM_IDLE_TIMEOUT, 60000);
+
+        // point lookups and status polls should fail fast
+        defaults.put(READ_TIMEOUT + ".Server/GetServer", 30000);
+        defaults.put(REQUEST_TIMEOUT + ".Server/GetServer", 60000);
+        defaults.put(READ_TIMEOUT + ".Blueprint/GetDeploymentStatus", 30000);
+        defaults.put(REQUEST_TIMEOUT + ".Blueprint/GetDeploymentStatus", 60000);
+        defaults.put(READ_TIMEOUT + ".Auth/Logon", 30000);
+        defaults.put(REQUEST_TIMEOUT + ".Auth/Logon", 60000);
+
+        // server builds are accepted slowly by the blueprint engine
+        defaults.put(READ_TIMEOUT + ".Server/CreateServer", 600000);
+        defaults.put(REQUEST_TIMEOUT + ".Server/CreateServer", 900000);
+    }
+
+    static @Nonnull
+    String toOperation(@Nonnull String resource) {
+        String operation = resource;
+
+        while (operation.startsWith("/")) {
+            operation = operation.substring(1);
+        }
+        while (operation.endsWith("/")) {
+            operation = operation.substring(0, operation.length() - 1);
+        }
+        if (operation.endsWith("/JSON")) {
+            operation = operation.substring(0, operation.length() - 5);
+        }
+        return operation;
+    }
+
+    /**
+     * Parses an integer property value.
+     *
+     * @param name
+     *            the property name, for logging
+     * @param value
+     *            the raw value, possibly <code>null</code>
+     * @param defaultValue
+     *            the value to use when the property is missing or invalid
+     * @return the parsed value or the default
+     */
+    static int parse(@Nonnull String name, @Nullable String value, int defaultValue) {
+        if (value == null || value.trim().length() < 1) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Parses a boolean property value.
+     *
+     * @param value
+     *            the raw value, possibly <code>null</code>
+     * @param defaultValue
+     *            the value to use when the property is missing
+     * @return the parsed value or the default
+     */
+    static boolean parse(@Nullable String value, boolean defaultValue) {
+        if (value == null || value.trim().length() < 1) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    private final ProviderContext context;
+    private final Properties source;
+    private final Properties properties;
+    private final String proxyHost;
+    private final int proxyPort;
+    private final String userAgent;
+
+    APIClientConfig(@Nullable ProviderContext ctx) {
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+
+        context = ctx;
+        source = p;
+        properties = (p == null ? new Properties() : p);
+        proxyHost = properties.getProperty(PROXY_HOST);
+        proxyPort = parse(PROXY_PORT, properties.getProperty(PROXY_PORT), -1);
+        userAgent = properties.getProperty(USER_AGENT, "Dasein Cloud");
+    }
+
+    /**
+     * @return true if this configuration was built from the specified context and its current custom
+     *         properties
+     */
+    boolean isFor(@Nullable ProviderContext ctx) {
+        return ctx == context && (ctx == null || ctx.getCustomProperties() == source);
+    }
+
+    @Nonnull
+    String getUserAgent() {
+        return userAgent;
+    }
+
+    int getConnectTimeout(@Nonnull String resource) {
+        return getValue(CONNECT_TIMEOUT, resource);
+    }
+
+    int getReadTimeout(@Nonnull String resource) {
+        return getValue(READ_TIMEOUT, resource);
+    }
+
+    int getRequestTimeout(@Nonnull String resource) {
+        return getValue(REQUEST_TIMEOUT, resource);
+    }
+
+    int getConnectionRequestTimeout(@Nonnull String resource) {
+        return getValue(CONNECTION_REQUEST_TIMEOUT, resource);
+    }
+
+    int getStreamIdleTimeout(@Nonnull String resource) {
+        return getValue(STREAM_IDLE_TIMEOUT, resource);
+    }
+
+    /**
+     * Applies the timeouts and proxy configured for the specified resource to the request.
+     *
+     * @param request
+     *            the request about to be executed
+     * @param resource
+     *            the API resource being called
+     * @param ssl
+     *            whether the endpoint is reached over https
+     */
+    void configure(@Nonnull HttpRequestBase request, @Nonnull String resource, boolean ssl) {
+        HttpParams params = request.getParams();
+
+        params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, getConnectTimeout(resource));
+        params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, getReadTimeout(resource));
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, getConnectionRequestTimeout(resource));
+        HttpProtocolParams.setUserAgent(params, userAgent);
+        if (proxyHost != null && proxyHost.length() > 0) {
+            params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, proxyPort, ssl ? "https"
+                    : "http"));
+        }
+    }
+
+    private int getValue(@Nonnull String name, @Nonnull String resource) {
+        String key = name + "." + toOperation(resource);
+        String value = properties.getProperty(key);
+
+        if (value != null) {
+            return parse(key, value, defaults.get(name));
+        }
+        Integer builtIn = defaults.get(key);
+
+        if (builtIn != null) {
+            return builtIn;
+        }
+        return parse(name, properties.getProperty(name), defaults.get(name));
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.Consts;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+/**
+ * Pool of keep-alive HTTP connections shared by every {@link APIHandler} of a single {@link Tier3}
+ * provider. Connections are reused across API calls so that only the first call to the endpoint pays
+ * for the TCP and TLS handshake. Idle and expired connections are evicted in the background.
+ * <p>
+ * The pool is sized from the following context custom properties:
+ * </p>
+ * <ul>
+ * <li><code>maxConnections</code> - total connections across all routes (default 20)</li>
+ * <li><code>maxConnectionsPerRoute</code> - connections to a single host (default 10)</li>
+ * <li><code>connectionKeepAlive</code> - ms to keep an idle connection when the server does not say
+ * (default 30000)</li>
+ * <li><code>connectionIdleTimeout</code> - ms after which idle connections are evicted (default 60000)</li>
+ * </ul>
+ * <p>
+ * The pool also runs the deadlines that abort requests exceeding their {@link APIClientConfig}
+ * request timeout.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+class APIConnectionPool {
+    static private final Logger logger = Tier3.getLogger(APIConnectionPool.class);
+
+    static public final String MAX_CONNECTIONS = "maxConnections";
+    static public final String MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+    static public final String KEEP_ALIVE = "connectionKeepAlive";
+    static public final String IDLE_TIMEOUT = "connectionIdleTimeout";
+
+    private final PoolingClientConnectionManager connectionManager;
+    private final DefaultHttpClient client;
+    private final ScheduledExecutorService scheduler;
+
+    APIConnectionPool(@Nonnull Tier3 provider, @Nonnull APIClientConfig config) {
+        int maxTotal = provider.getIntProperty(MAX_CONNECTIONS, 20);
+        int maxPerRoute = provider.getIntProperty(MAX_CONNECTIONS_PER_ROUTE, 10);
+        final long keepAlive = provider.getIntProperty(KEEP_ALIVE, 30000);
+        final long idleTimeout = provider.getIntProperty(IDLE_TIMEOUT, 60000);
+
+        connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(Math.min(maxPerRoute, maxTotal));
+
+        client = new DefaultHttpClient(connectionManager);
+
+        HttpParams params = client.getParams();
+
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, Consts.UTF_8.toString());
+        HttpProtocolParams.setUserAgent(params, config.getUserAgent());
+
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final ConnectionKeepAliveStrategy serverStrategy = new DefaultConnectionKeepAliveStrategy();
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = serverStrategy.getKeepAliveDuration(response, context);
+
+                if (duration < 0) {
+                    return keepAlive;
+                }
+                return Math.min(duration, keepAlive);
+            }
+        });
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Tier3 connection evictor");
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(1000L, Math.min(idleTimeout / 2, 30000L));
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connectionManager.closeExpiredConnections();
+                    connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+                } catch (Throwable t) {
+                    logger.warn("Failed to evict idle connections: " + t.getMessage());
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Created connection pool with " + maxTotal + " total and " + maxPerRoute
+                    + " per route connections");
+        }
+    }
+
+    @Nonnull
+    HttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Aborts the request if it is still running once the deadline passes. The returned future must be
+     * cancelled when the request completes.
+     *
+     * @param request
+     *            the request to guard
+     * @param timeout
+     *            the deadline in milliseconds from now
+     * @return the scheduled abort
+     */
+    @Nonnull
+    ScheduledFuture<?> abortAfter(@Nonnull final HttpRequestBase request, final long timeout) {
+        return scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isAborted()) {
+                    logger.warn("Aborting " + request.getRequestLine() + " after " + timeout + "ms");
+                    request.abort();
+                }
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a short task on the pool scheduler after a delay, such as a check on an open stream.
+     *
+     * @param task
+     *            the task to run, which must not block
+     * @param delay
+     *            the delay in milliseconds
+     * @return the scheduled task
+     */
+    @Nonnull
+    ScheduledFuture<?> schedule(@Nonnull Runnable task, long delay) {
+        return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+        connectionManager.shutdown();
+    }
+}
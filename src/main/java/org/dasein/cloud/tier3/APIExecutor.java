@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+
+/**
+ * Bounded executor for the asynchronous work of a single {@link Tier3} provider, such as paginated
+ * GET requests and fan-out API calls. At most <code>apiThreads</code> tasks run at once and at most
+ * <code>apiQueueSize</code> more wait for a worker; once both are used up, {@link #submit(Callable)}
+ * blocks the caller until a slot frees up.
+ * <p>
+ * When the <code>apiVirtualThreads</code> custom property is <code>true</code> and the JVM supports
+ * virtual threads, every task runs on its own virtual thread and <code>apiThreads</code> only bounds
+ * concurrency. Otherwise a pool of daemon platform threads is used.
+ * </p>
+ * <p>
+ * A task holds its slot and the provider until it ends, whether it completes, fails or is cancelled
+ * before it ever starts.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+public class APIExecutor {
+    static private final Logger logger = Tier3.getLogger(APIExecutor.class);
+
+    static public final String THREADS = "apiThreads";
+    static public final String QUEUE_SIZE = "apiQueueSize";
+    static public final String VIRTUAL_THREADS = "apiVirtualThreads";
+
+    /**
+     * Looks up the virtual thread factory reflectively so that the driver still runs on JVMs that
+     * predate virtual threads.
+     *
+     * @return a factory for virtual threads, or <code>null</code> if they are not supported
+     */
+    static private @Nullable
+    ThreadFactory getVirtualThreadFactory() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "Tier3 API ", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private final Tier3 provider;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+
+    APIExecutor(@Nonnull Tier3 provider) {
+        this(provider, provider.getIntProperty(THREADS, 10), provider.getIntProperty(QUEUE_SIZE, 100),
+                provider.getBooleanProperty(VIRTUAL_THREADS, false));
+    }
+
+    APIExecutor(@Nonnull Tier3 provider, int threads, int queueSize, boolean virtualThreads) {
+        this.provider = provider;
+        threads = Math.max(1, threads);
+        queueSize = Math.max(0, queueSize);
+
+        ThreadFactory virtual = null;
+
+        if (virtualThreads) {
+            virtual = getVirtualThreadFactory();
+            if (virtual == null) {
+                logger.warn("Virtual threads are not supported by this JVM, using platform threads");
+            }
+        }
+        if (virtual != null) {
+            // one short-lived virtual thread per task, concurrency is bounded by the slots alone
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.MILLISECONDS,
+                    new SynchronousQueue<Runnable>(), virtual);
+        } else {
+            final AtomicInteger count = new AtomicInteger(0);
+
+            executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "Tier3 API " + count.incrementAndGet());
+
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        slots = new Semaphore(virtual == null ? threads + queueSize : threads, true);
+    }
+
+    /**
+     * Submits a task, waiting for a free slot if the executor is saturated. The provider is held for
+     * the life of the task.
+     *
+     * @param task
+     *            the work to run
+     * @return a future for the result of the task
+     * @throws InternalException
+     *             the caller was interrupted while waiting or the executor has been shut down
+     */
+    public @Nonnull
+    <T> Future<T> submit(@Nonnull Callable<T> task) throws InternalException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        provider.hold();
+
+        Task<T> future = new Task<T>(task);
+
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            future.cancel(false);
+            throw new InternalException(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return the number of tasks that can still be submitted without waiting
+     */
+    int getAvailableSlots() {
+        return slots.availablePermits();
+    }
+
+    void shutdown() {
+        // tasks that never started still hold a slot and the provider until they are cancelled
+        for (Runnable pending : executor.shutdownNow()) {
+            if (pending instanceof Future<?>) {
+                ((Future<?>) pending).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Gives back the slot and the provider hold exactly once, when the task ends in any way.
+     */
+    private class Task<T> extends FutureTask<T> {
+        Task(@Nonnull Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void done() {
+            provider.release();
+            slots.release();
+        }
+    }
+}
@@ -19,7 +19,10 @@
 
 package org.dasein.cloud.tier3;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -27,17 +30,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
-import org.apache.http.Consts;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
-import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
@@ -45,15 +47,10 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.CoreConnectionPNames;
-import org.apache.http.params.HttpParams;
-import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
@@ -78,6 +75,7 @@ public class APIHandler {
     static public final int CREATED = 201;
     static public final int ACCEPTED = 202;
     static public final int NO_CONTENT = 204;
+    static public final int UNAUTHORIZED = 401;
     static public final int NOT_FOUND = 404;
 
     private Tier3 provider;
@@ -108,7 +106,9 @@ public class APIHandler {
                 } catch (URISyntaxException e) {
                     throw new ConfigurationException(e);
                 }
-                HttpClient client = getClient(uri);
+                HttpClient client = getClient();
+                HttpDelete delete = new HttpDelete(target);
+                ScheduledFuture<?> deadline = configure(delete, resource, uri);
 
                 try {
                     ProviderContext ctx = provider.getContext();
@@ -116,7 +116,6 @@ public class APIHandler {
                     if (ctx == null) {
                         throw new NoContextException();
                     }
-                    HttpDelete delete = new HttpDelete(target);
 
                     delete.addHeader("Accept", "application/json");
                     delete.addHeader("Content-type", "application/json");
@@ -132,14 +131,8 @@ public class APIHandler {
                     HttpResponse apiResponse;
                     StatusLine status;
 
-                    try {
-                        APITrace.trace(provider, "DELETE " + resource);
-                        apiResponse = client.execute(delete);
-                        status = apiResponse.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
+                    apiResponse = execute(client, delete, "DELETE " + resource);
+                    status = apiResponse.getStatusLine();
                     if (logger.isDebugEnabled()) {
                         logger.debug("HTTP Status " + status);
                     }
@@ -182,10 +175,7 @@ public class APIHandler {
                                 status.getReasonPhrase(), body);
                     }
                 } finally {
-                    try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
-                    }
+                    release(delete, deadline);
                 }
             } finally {
                 if (wire.isDebugEnabled()) {
@@ -204,41 +194,181 @@ public class APIHandler {
         }
     }
 
+    /**
+     * Starts a paginated GET on the provider executor. The returned response fills in as pages arrive;
+     * failures are reported through the response.
+     */
     public @Nonnull
     APIResponse get(final @Nonnull String operation, final @Nonnull String resource, final @Nullable String id,
             final @Nullable NameValuePair... parameters) {
         final APIResponse apiResponse = new APIResponse();
 
-        Thread t = new Thread() {
-            @Override
-            public void run() {
-                try {
+        try {
+            provider.getExecutor().submit(new Callable<APIResponse>() {
+                @Override
+                public APIResponse call() {
                     APITrace.begin(provider, operation);
                     try {
-                        try {
-                            get(apiResponse, null, 1, resource, id, parameters);
-                        } catch (Throwable t) {
-                            apiResponse.receive(new CloudException(t));
-                        }
+                        getPages(apiResponse, resource, id, parameters);
                     } finally {
                         APITrace.end();
                     }
+                    return apiResponse;
+                }
+            });
+        } catch (InternalException e) {
+            apiResponse.receive(new CloudException(e));
+        }
+        return apiResponse;
+    }
+
+    /**
+     * Runs a paginated GET on the provider executor.
+     * 
+     * @return a future that completes once every page has been received or one of them has failed
+     */
+    public @Nonnull
+    Future<APIResponse> getAsync(final @Nonnull String operation, final @Nonnull String resource,
+            final @Nullable String id, final @Nullable NameValuePair... parameters) throws InternalException {
+        return provider.getExecutor().submit(new Callable<APIResponse>() {
+            @Override
+            public APIResponse call() {
+                APIResponse apiResponse = new APIResponse();
+
+                APITrace.begin(provider, operation);
+                try {
+                    getPages(apiResponse, resource, id, parameters);
+                } finally {
+                    APITrace.end();
+                }
+                return apiResponse;
+            }
+        });
+    }
+
+    /**
+     * Runs {@link #post(String, String)} on the provider executor.
+     */
+    public @Nonnull
+    Future<APIResponse> postAsync(final @Nonnull String resource, final @Nonnull String json)
+            throws InternalException {
+        return provider.getExecutor().submit(new Callable<APIResponse>() {
+            @Override
+            public APIResponse call() throws InternalException, CloudException {
+                APITrace.begin(provider, APIClientConfig.toOperation(resource));
+                try {
+                    return post(resource, json);
                 } finally {
-                    provider.release();
+                    APITrace.end();
                 }
             }
-        };
+        });
+    }
 
-        t.setName(operation);
-        t.setDaemon(true);
+    /**
+     * Runs {@link #put(String, String, String)} on the provider executor.
+     */
+    public @Nonnull
+    Future<APIResponse> putAsync(final @Nonnull String resource, final @Nonnull String id,
+            final @Nonnull String json) throws InternalException {
+        return provider.getExecutor().submit(new Callable<APIResponse>() {
+            @Override
+            public APIResponse call() throws InternalException, CloudException {
+                APITrace.begin(provider, APIClientConfig.toOperation(resource));
+                try {
+                    return put(resource, id, json);
+                } finally {
+                    APITrace.end();
+                }
+            }
+        });
+    }
 
-        provider.hold();
-        t.start();
-        return apiResponse;
+    /**
+     * Runs {@link #delete(String, String, NameValuePair...)} on the provider executor.
+     */
+    public @Nonnull
+    Future<Void> deleteAsync(final @Nonnull String resource, final @Nonnull String id,
+            final @Nullable NameValuePair... parameters) throws InternalException {
+        return provider.getExecutor().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InternalException, CloudException {
+                APITrace.begin(provider, APIClientConfig.toOperation(resource));
+                try {
+                    delete(resource, id, parameters);
+                    return null;
+                } finally {
+                    APITrace.end();
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches a single page of a paginated response into the response object for that page.
+     */
+    interface PageFetcher {
+        /**
+         * @return the pagination ID to request the following page with, or <code>null</code> if the
+         *         page was the last one or failed
+         */
+        @Nullable
+        String fetch(@Nonnull APIResponse response, @Nullable String paginationId, int page)
+                throws InternalException, CloudException;
+    }
+
+    /**
+     * Fetches every page of a paginated response, starting with the first. Each page is linked to the
+     * previous one before it is requested, and a page that cannot be fetched is failed itself, so that
+     * callers walking the chain see the error on the page they are waiting for instead of blocking.
+     * Fetching stops once a page has been cancelled.
+     */
+    static void fetchPages(@Nonnull APIResponse first, @Nonnull PageFetcher fetcher) {
+        APIResponse current = first;
+        String paginationId = null;
+        int page = 1;
+
+        while (true) {
+            try {
+                paginationId = fetcher.fetch(current, paginationId, page);
+            } catch (CloudException e) {
+                current.receive(e);
+                return;
+            } catch (Throwable t) {
+                current.receive(new CloudException(t));
+                return;
+            }
+            if (paginationId == null || current.isCancelled()) {
+                return;
+            }
+            APIResponse r = new APIResponse();
+
+            current.setNext(r);
+            current = r;
+            page++;
+        }
     }
 
-    private void get(@Nonnull APIResponse apiResponse, @Nullable String paginationId, final int page,
-            final @Nonnull String resource, final @Nullable String id, final @Nullable NameValuePair... parameters)
+    private void getPages(@Nonnull APIResponse first, final @Nonnull String resource, final @Nullable String id,
+            final @Nullable NameValuePair... parameters) {
+        fetchPages(first, new PageFetcher() {
+            @Override
+            public String fetch(APIResponse response, String paginationId, int page) throws InternalException,
+                    CloudException {
+                return get(response, paginationId, page, resource, id, parameters);
+            }
+        });
+    }
+
+    /**
+     * Fetches one page of a paginated GET.
+     * 
+     * @return the pagination ID to request the following page with, or <code>null</code> if this page
+     *         was the last one or failed
+     */
+    private @Nullable
+    String get(@Nonnull APIResponse apiResponse, @Nullable String paginationId, int page,
+            @Nonnull String resource, @Nullable String id, @Nullable NameValuePair... parameters)
             throws InternalException, CloudException {
         if (logger.isTraceEnabled()) {
             logger.trace("ENTER - " + APIHandler.class.getName() + ".get(" + paginationId + "," + page + "," + resource
@@ -280,7 +410,9 @@ public class APIHandler {
                 } catch (URISyntaxException e) {
                     throw new ConfigurationException(e);
                 }
-                HttpClient client = getClient(uri);
+                HttpClient client = getClient();
+                HttpGet get = new HttpGet(target);
+                ScheduledFuture<?> deadline = configure(get, resource, uri);
 
                 try {
                     ProviderContext ctx = provider.getContext();
@@ -288,7 +420,6 @@ public class APIHandler {
                     if (ctx == null) {
                         throw new NoContextException();
                     }
-                    HttpGet get = new HttpGet(target);
 
                     get.addHeader("Accept", "application/json");
                     get.addHeader("Content-Type", "application/json");
@@ -304,14 +435,8 @@ public class APIHandler {
                     HttpResponse response;
                     StatusLine status;
 
-                    try {
-                        APITrace.trace(provider, "GET " + resource);
-                        response = client.execute(get);
-                        status = response.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
+                    response = execute(client, get, "GET " + resource);
+                    status = response.getStatusLine();
                     if (logger.isDebugEnabled()) {
                         logger.debug("HTTP Status " + status);
                     }
@@ -330,7 +455,7 @@ public class APIHandler {
                     }
                     if (status.getStatusCode() == NOT_FOUND) {
                         apiResponse.receive();
-                        return;
+                        return null;
                     }
                     if (status.getStatusCode() != OK) {
                         logger.error("Expected OK for GET request, got " + status.getStatusCode());
@@ -352,6 +477,7 @@ public class APIHandler {
                         wire.debug("");
                         apiResponse.receive(new Tier3Exception(CloudErrorType.GENERAL, status.getStatusCode(), status
                                 .getReasonPhrase(), body));
+                        return null;
                     } else {
                         HttpEntity entity = response.getEntity();
 
@@ -402,18 +528,10 @@ public class APIHandler {
                                 throw new CloudException(e);
                             }
                         }
-                        if (!complete) {
-                            APIResponse r = new APIResponse();
-
-                            apiResponse.setNext(r);
-                            get(r, pid, page + 1, resource, id, parameters);
-                        }
+                        return (complete ? null : pid);
                     }
                 } finally {
-                    try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
-                    }
+                    release(get, deadline);
                 }
             } finally {
                 if (wire.isDebugEnabled()) {
@@ -433,42 +551,59 @@ public class APIHandler {
     }
 
     private @Nonnull
-    HttpClient getClient(URI uri) throws InternalException, CloudException {
-        ProviderContext ctx = provider.getContext();
+    HttpClient getClient() {
+        return provider.getConnectionPool().getClient();
+    }
 
-        if (ctx == null) {
-            throw new NoContextException();
+    /**
+     * Applies the per-operation timeouts and proxy to the request and arms its overall deadline.
+     * 
+     * @return the pending deadline, or <code>null</code> if the operation has none
+     */
+    private @Nullable
+    ScheduledFuture<?> configure(@Nonnull HttpRequestBase request, @Nonnull String resource, @Nonnull URI uri) {
+        APIClientConfig config = provider.getClientConfig();
+        int timeout = config.getRequestTimeout(resource);
+
+        config.configure(request, resource, uri.getScheme().startsWith("https"));
+        if (timeout > 0) {
+            return provider.getConnectionPool().abortAfter(request, timeout);
         }
+        return null;
+    }
 
-        boolean ssl = uri.getScheme().startsWith("https");
-
-        HttpParams params = new BasicHttpParams();
-
-        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-        // noinspection deprecation
-        HttpProtocolParams.setContentCharset(params, Consts.UTF_8.toString());
-        HttpProtocolParams.setUserAgent(params, "Dasein Cloud");
-        params.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 10000);
-        params.setParameter(CoreConnectionPNames.SO_TIMEOUT, 300000);
-
-        Properties p = ctx.getCustomProperties();
-
-        if (p != null) {
-            String proxyHost = p.getProperty("proxyHost");
-            String proxyPort = p.getProperty("proxyPort");
-
-            if (proxyHost != null) {
-                int port = 0;
+    /**
+     * Executes a request, logging on again and retrying once if the cloud rejects the session it
+     * carries. Requests without a session cookie, such as the logon itself, are never retried.
+     */
+    private @Nonnull
+    HttpResponse execute(@Nonnull HttpClient client, @Nonnull HttpRequestBase request, @Nonnull String operation)
+            throws CloudException, InternalException {
+        try {
+            APITrace.trace(provider, operation);
+            HttpResponse response = client.execute(request);
+            Header cookie = request.getFirstHeader("Cookie");
 
-                if (proxyPort != null && proxyPort.length() > 0) {
-                    port = Integer.parseInt(proxyPort);
-                }
-                params.setParameter(ConnRoutePNames.DEFAULT_PROXY,
-                        new HttpHost(proxyHost, port, ssl ? "https" : "http"));
+            if (response.getStatusLine().getStatusCode() != UNAUTHORIZED || cookie == null) {
+                return response;
             }
+            logger.debug("Session rejected for " + operation + ", logging on again");
+            EntityUtils.consume(response.getEntity());
+            provider.getSessionManager().invalidate(cookie.getValue());
+            request.setHeader("Cookie", provider.logon());
+            APITrace.trace(provider, operation);
+            return client.execute(request);
+        } catch (IOException e) {
+            logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
+            throw new CloudException(e);
         }
+    }
 
-        return new DefaultHttpClient();
+    private void release(@Nonnull HttpRequestBase request, @Nullable ScheduledFuture<?> deadline) {
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        request.releaseConnection();
     }
 
     private @Nonnull
@@ -539,7 +674,9 @@ public class APIHandler {
                 } catch (URISyntaxException e) {
                     throw new ConfigurationException(e);
                 }
-                HttpClient client = getClient(uri);
+                HttpClient client = getClient();
+                HttpPost post = new HttpPost(target);
+                ScheduledFuture<?> deadline = configure(post, resource, uri);
 
                 try {
                     ProviderContext ctx = provider.getContext();
@@ -548,8 +685,6 @@ public class APIHandler {
                         throw new NoContextException();
                     }
 
-                    HttpPost post = new HttpPost(target);
-
                     post.addHeader("Accept", "application/json");
                     post.addHeader("Content-type", "application/json");
 
@@ -576,14 +711,8 @@ public class APIHandler {
                     HttpResponse response;
                     StatusLine status;
 
-                    try {
-                        APITrace.trace(provider, "POST " + resource);
-                        response = client.execute(post);
-                        status = response.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
+                    response = execute(client, post, "POST " + resource);
+                    status = response.getStatusLine();
                     if (logger.isDebugEnabled()) {
                         logger.debug("HTTP Status " + status);
                     }
@@ -670,9 +799,158 @@ public class APIHandler {
                         return r;
                     }
                 } finally {
+                    release(post, deadline);
+                }
+            } finally {
+                if (wire.isDebugEnabled()) {
+                    wire.debug("<<< [POST ("
+                            + (new Date())
+                            + ")] -> "
+                            + target
+                            + " <--------------------------------------------------------------------------------------");
+                    wire.debug("");
+                }
+            }
+        } finally {
+            if (logger.isTraceEnabled()) {
+                logger.trace("EXIT - " + APIHandler.class.getName() + ".post()");
+            }
+        }
+    }
+
+    /**
+     * Posts a request and streams the elements of one top level array of the response instead of
+     * reading the whole body into memory. The caller must close the returned stream.
+     * 
+     * @param resource
+     *            the API resource to post to
+     * @param json
+     *            the request payload
+     * @param arrayName
+     *            the top level array to stream, such as <code>Servers</code>
+     * @return a stream positioned at the first element of the array
+     */
+    public @Nonnull
+    APIStream postStream(@Nonnull String resource, @Nonnull String json, @Nonnull String arrayName)
+            throws InternalException, CloudException {
+        if (logger.isTraceEnabled()) {
+            logger.trace("ENTER - " + APIHandler.class.getName() + ".postStream(" + resource + "," + json + ","
+                    + arrayName + ")");
+        }
+        try {
+            String target = getEndpoint(resource, null);
+
+            if (wire.isDebugEnabled()) {
+                wire.debug("");
+                wire.debug(">>> [POST (" + (new Date()) + ")] -> " + target
+                        + " >--------------------------------------------------------------------------------------");
+            }
+            try {
+                URI uri;
+
+                try {
+                    uri = new URI(target);
+                } catch (URISyntaxException e) {
+                    throw new ConfigurationException(e);
+                }
+                HttpClient client = getClient();
+                HttpPost post = new HttpPost(target);
+                ScheduledFuture<?> deadline = configure(post, resource, uri);
+                boolean streaming = false;
+
+                try {
+                    ProviderContext ctx = provider.getContext();
+
+                    if (ctx == null) {
+                        throw new NoContextException();
+                    }
+
+                    post.addHeader("Accept", "application/json");
+                    post.addHeader("Content-type", "application/json");
+                    post.addHeader("Cookie", provider.logon());
+
                     try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
+                        post.setEntity(new StringEntity(json, "utf-8"));
+                    } catch (UnsupportedEncodingException e) {
+                        logger.error("Unsupported encoding UTF-8: " + e.getMessage());
+                        throw new InternalException(e);
+                    }
+
+                    if (wire.isDebugEnabled()) {
+                        wire.debug(post.getRequestLine().toString());
+                        for (Header header : post.getAllHeaders()) {
+                            wire.debug(header.getName() + ": " + header.getValue());
+                        }
+                        wire.debug("");
+                        wire.debug(json);
+                        wire.debug("");
+                    }
+                    HttpResponse response;
+                    StatusLine status;
+
+                    response = execute(client, post, "POST " + resource);
+                    status = response.getStatusLine();
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("HTTP Status " + status);
+                    }
+                    if (wire.isDebugEnabled()) {
+                        wire.debug(status.toString());
+                        for (Header h : response.getAllHeaders()) {
+                            if (h.getValue() != null) {
+                                wire.debug(h.getName() + ": " + h.getValue().trim());
+                            } else {
+                                wire.debug(h.getName() + ":");
+                            }
+                        }
+                        wire.debug("");
+                    }
+                    if (status.getStatusCode() == NOT_FOUND) {
+                        throw new CloudException("No such endpoint: " + target);
+                    }
+                    HttpEntity entity = response.getEntity();
+
+                    if (status.getStatusCode() != ACCEPTED && status.getStatusCode() != CREATED
+                            && status.getStatusCode() != OK) {
+                        logger.error("Expected OK, ACCEPTED or CREATED for POST request, got " + status.getStatusCode());
+                        if (entity == null) {
+                            throw new Tier3Exception(CloudErrorType.GENERAL, status.getStatusCode(),
+                                    status.getReasonPhrase(), status.getReasonPhrase());
+                        }
+                        String body;
+
+                        try {
+                            body = EntityUtils.toString(entity);
+                        } catch (IOException e) {
+                            throw new Tier3Exception(e);
+                        }
+                        if (wire.isDebugEnabled()) {
+                            wire.debug(body);
+                        }
+                        wire.debug("");
+                        throw new Tier3Exception(CloudErrorType.GENERAL, status.getStatusCode(),
+                                status.getReasonPhrase(), body);
+                    }
+                    if (entity == null) {
+                        throw new CloudException("No response to the POST");
+                    }
+                    String charset = EntityUtils.getContentCharSet(entity);
+                    Reader reader;
+
+                    try {
+                        reader = new BufferedReader(new InputStreamReader(entity.getContent(),
+                                charset == null ? "utf-8" : charset));
+                    } catch (IOException e) {
+                        throw new Tier3Exception(e);
+                    }
+                    APIStream stream = new APIStream(post, deadline, reader, arrayName);
+
+                    stream.abortWhenIdle(provider.getConnectionPool(), provider.getClientConfig()
+                            .getStreamIdleTimeout(resource));
+                    streaming = true;
+                    return stream;
+                } finally {
+                    if (!streaming) {
+                        release(post, deadline);
                     }
                 }
             } finally {
@@ -687,7 +965,7 @@ public class APIHandler {
             }
         } finally {
             if (logger.isTraceEnabled()) {
-                logger.trace("EXIT - " + APIHandler.class.getName() + ".post()");
+                logger.trace("EXIT - " + APIHandler.class.getName() + ".postStream()");
             }
         }
     }
@@ -714,7 +992,9 @@ public class APIHandler {
                 } catch (URISyntaxException e) {
                     throw new ConfigurationException(e);
                 }
-                HttpClient client = getClient(uri);
+                HttpClient client = getClient();
+                HttpPut put = new HttpPut(target);
+                ScheduledFuture<?> deadline = configure(put, resource, uri);
 
                 try {
                     ProviderContext ctx = provider.getContext();
@@ -722,7 +1002,6 @@ public class APIHandler {
                     if (ctx == null) {
                         throw new NoContextException();
                     }
-                    HttpPut put = new HttpPut(target);
 
                     put.addHeader("Accept", "application/json");
                     put.addHeader("Content-type", "application/json");
@@ -747,14 +1026,8 @@ public class APIHandler {
                     HttpResponse response;
                     StatusLine status;
 
-                    try {
-                        APITrace.trace(provider, "PUT " + resource);
-                        response = client.execute(put);
-                        status = response.getStatusLine();
-                    } catch (IOException e) {
-                        logger.error("Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
-                        throw new CloudException(e);
-                    }
+                    response = execute(client, put, "PUT " + resource);
+                    status = response.getStatusLine();
                     if (logger.isDebugEnabled()) {
                         logger.debug("HTTP Status " + status);
                     }
@@ -821,10 +1094,7 @@ public class APIHandler {
                         return r;
                     }
                 } finally {
-                    try {
-                        client.getConnectionManager().shutdown();
-                    } catch (Throwable ignore) {
-                    }
+                    release(put, deadline);
                 }
             } finally {
                 if (wire.isDebugEnabled()) {
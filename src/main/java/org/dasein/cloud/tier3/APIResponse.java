@@ -19,8 +19,8 @@
 
 package org.dasein.cloud.tier3;
 
+import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
-import org.dasein.util.CalendarWrapper;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -28,168 +28,312 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * A response from a RESTful API.
- * 
+ * A response from a RESTful API. A response is filled in once, possibly by another thread; the
+ * accessors block until it arrives. Blocking waits honor interruption and can be bounded with the
+ * timed variants, and callers that would rather not block at all can register a {@link Listener}.
+ *
  * @author George Reese
  * @version 2013.01 initial version
+ * @version 2014.07 replaced monitor waits with latches, added timeouts, cancellation and listeners
  * @since 2013.01
  */
 public class APIResponse {
-    private int code;
-    private JSONObject json;
-    private InputStream data;
-    private Boolean complete;
+    static private final Logger logger = Tier3.getLogger(APIResponse.class);
+
+    /**
+     * Notified once a response has been received, failed or been cancelled. Listeners run on the
+     * thread that completes the response, or on the registering thread if it is already complete, so
+     * they should not block.
+     */
+    public interface Listener {
+        void onResponse(@Nonnull APIResponse response);
+    }
+
+    private volatile int code;
+    private volatile JSONObject json;
+    private volatile InputStream data;
+    private volatile boolean complete;
+    private volatile boolean cancelled;
 
-    private CloudException error;
-    private APIResponse next;
+    private volatile CloudException error;
+    private volatile APIResponse next;
+
+    private final AtomicBoolean settled = new AtomicBoolean(false);
+    private final CountDownLatch received = new CountDownLatch(1);
+    private final CountDownLatch linked = new CountDownLatch(1);
+
+    private final Object lock = new Object();
+    private List<Listener> listeners = new ArrayList<Listener>();
 
     public APIResponse() {
     }
 
     public int getCode() throws CloudException {
-        synchronized (this) {
-            while (complete == null && error == null) {
-                try {
-                    wait(CalendarWrapper.MINUTE);
-                } catch (InterruptedException ignore) {
-                }
-            }
-            if (error != null) {
-                throw error;
-            }
-            return code;
-        }
+        await();
+        return code;
     }
 
     public InputStream getData() throws CloudException {
-        synchronized (this) {
-            while (complete == null && error == null) {
-                try {
-                    wait(CalendarWrapper.MINUTE);
-                } catch (InterruptedException ignore) {
-                }
-            }
-            if (error != null) {
-                throw error;
-            }
-            return data;
-        }
+        await();
+        return data;
     }
 
     public JSONObject getJSON() throws CloudException {
-        synchronized (this) {
-            while (complete == null && error == null) {
-                try {
-                    wait(CalendarWrapper.MINUTE);
-                } catch (InterruptedException ignore) {
-                }
-            }
-            if (error != null) {
-                throw error;
-            }
-            return json;
-        }
+        await();
+        return json;
+    }
+
+    /**
+     * Waits at most the specified time for the response.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return the JSON payload of the response
+     * @throws CloudException
+     *             the request failed, was cancelled, timed out or the caller was interrupted
+     */
+    public JSONObject getJSON(long timeout, @Nonnull TimeUnit unit) throws CloudException {
+        await(timeout, unit);
+        return json;
     }
 
     public boolean isComplete() throws CloudException {
-        synchronized (this) {
-            while (complete == null && error == null) {
-                try {
-                    wait(CalendarWrapper.MINUTE);
-                } catch (InterruptedException ignore) {
-                }
-            }
-            if (error != null) {
-                throw error;
-            }
-            return complete;
+        await();
+        return complete;
+    }
+
+    /**
+     * @return true if this response has been received, failed or cancelled, without blocking
+     */
+    public boolean isDone() {
+        return received.getCount() == 0;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Cancels this response and every page that follows it. Callers blocked on the response are
+     * released with an error, and no further pages are fetched.
+     */
+    public void cancel() {
+        cancelled = true;
+        fail(new CloudException("The request was cancelled"));
+        // release anyone waiting on a page that will now never be fetched
+        linked.countDown();
+
+        APIResponse n = next;
+
+        if (n != null) {
+            n.cancel();
         }
     }
 
     public @Nullable
     APIResponse next() throws CloudException {
-        synchronized (this) {
-            while (complete == null && error == null) {
-                try {
-                    wait(CalendarWrapper.MINUTE);
-                } catch (InterruptedException ignore) {
-                }
-            }
-            if (error != null) {
-                throw error;
-            }
-            if (complete) {
-                return null;
-            }
-            while (next == null && error == null) {
-                try {
-                    wait(CalendarWrapper.MINUTE);
-                } catch (InterruptedException ignore) {
-                }
+        await();
+        if (complete) {
+            return null;
+        }
+        try {
+            linked.await();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (next == null && cancelled) {
+            throw new CloudException("The request was cancelled");
+        }
+        return next;
+    }
+
+    /**
+     * Waits at most the specified time for the following page of a paginated response.
+     *
+     * @param timeout
+     *            the maximum time to wait for this page and the link to the next
+     * @param unit
+     *            the unit of the timeout
+     * @return the next page or <code>null</code> if this is the last one
+     * @throws CloudException
+     *             the request failed, was cancelled, timed out or the caller was interrupted
+     */
+    public @Nullable
+    APIResponse next(long timeout, @Nonnull TimeUnit unit) throws CloudException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        await(timeout, unit);
+        if (complete) {
+            return null;
+        }
+        try {
+            if (!linked.await(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                throw new CloudException("Timed out waiting for the next page of the response");
             }
-            if (error != null) {
-                throw error;
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (next == null && cancelled) {
+            throw new CloudException("The request was cancelled");
+        }
+        return next;
+    }
+
+    /**
+     * Registers a listener to be notified when this response completes. If it already has, the
+     * listener is notified immediately on the calling thread. Either way it is notified once.
+     *
+     * @param listener
+     *            the listener to notify
+     */
+    public void addListener(@Nonnull Listener listener) {
+        synchronized (lock) {
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
             }
-            return next;
         }
+        notify(listener);
     }
 
     void receive() {
-        synchronized (this) {
-            this.code = APIHandler.NOT_FOUND;
-            this.complete = true;
-            notifyAll();
+        if (!settle()) {
+            return;
         }
+        this.code = APIHandler.NOT_FOUND;
+        this.complete = true;
+        done();
     }
 
     void receive(CloudException error) {
-        synchronized (this) {
-            this.code = error.getHttpCode();
-            this.error = error;
-            this.complete = true;
-            notifyAll();
-        }
+        fail(error);
     }
 
     void receive(int statusCode, @Nonnull InputStream data) {
-        synchronized (this) {
-            this.code = statusCode;
-            this.data = data;
-            this.complete = true;
-            notifyAll();
+        if (!settle()) {
+            return;
         }
+        this.code = statusCode;
+        this.data = data;
+        this.complete = true;
+        done();
     }
 
     void receive(int statusCode, @Nonnull JSONObject json, boolean complete) {
-        synchronized (this) {
-            this.code = statusCode;
-            this.json = json;
-            this.complete = complete;
-            notifyAll();
+        if (!settle()) {
+            return;
         }
+        this.code = statusCode;
+        this.json = json;
+        this.complete = complete;
+        done();
     }
 
     void setNext(APIResponse next) {
-        synchronized (this) {
-            this.next = next;
-            notifyAll();
+        this.next = next;
+        linked.countDown();
+        if (cancelled) {
+            next.cancel();
         }
     }
 
     /**
      * Cloud specific method to test standard values in a JSON response payload.
-     * 
+     *
      * @throws CloudException
      * @throws JSONException
      */
     public void validate() throws CloudException, JSONException {
-        synchronized (this) {
-            if (this.json.has("Success") && !this.json.getBoolean("Success")) {
-                throw new CloudException(this.json.getString("Message"));
+        JSONObject json = getJSON();
+
+        if (json.has("Success") && !json.getBoolean("Success")) {
+            throw new CloudException(json.getString("Message"));
+        }
+    }
+
+    private void fail(@Nonnull CloudException error) {
+        if (!settle()) {
+            return;
+        }
+        this.code = error.getHttpCode();
+        this.error = error;
+        this.complete = true;
+        done();
+    }
+
+    /**
+     * @return true if the caller won the right to fill in this response
+     */
+    private boolean settle() {
+        return settled.compareAndSet(false, true);
+    }
+
+    private void done() {
+        List<Listener> notify;
+
+        received.countDown();
+        synchronized (lock) {
+            notify = listeners;
+            listeners = null;
+        }
+        if (complete) {
+            linked.countDown();
+        }
+        for (Listener listener : notify) {
+            notify(listener);
+        }
+    }
+
+    private void notify(@Nonnull Listener listener) {
+        try {
+            listener.onResponse(this);
+        } catch (Throwable t) {
+            logger.warn("Response listener failed: " + t.getMessage(), t);
+        }
+    }
+
+    private void await() throws CloudException {
+        try {
+            received.await();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void await(long timeout, @Nonnull TimeUnit unit) throws CloudException {
+        try {
+            if (!received.await(timeout, unit)) {
+                throw new CloudException("Timed out waiting for the response");
             }
-            notifyAll();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        if (error != null) {
+            throw error;
         }
     }
+
+    private @Nonnull
+    CloudException interrupted(@Nonnull InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new CloudException(e);
+    }
 }
@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.io.Closeable;
+import java.io.Reader;
+import java.util.concurrent.ScheduledFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A JSON response read incrementally from the connection. The elements of one top level array, such
+ * as <code>Servers</code> or <code>Templates</code>, are parsed one at a time as the caller asks for
+ * them, so only a single element is held in memory no matter how large the response is. All other
+ * top level fields (<code>Success</code>, <code>Message</code>, <code>StatusCode</code>...) are
+ * collected into the header.
+ * <p>
+ * A stream holds a pooled connection until it is closed. Closing a stream that has not been read to
+ * the end aborts the request rather than draining the rest of the body. A stream that is left unread
+ * for longer than its idle timeout is aborted as well, so that an abandoned stream gives its
+ * connection back to the pool instead of holding it until the request timeout; reading it afterwards
+ * fails.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+public class APIStream implements Closeable {
+    static private final Logger wire = Tier3.getWireLogger(APIStream.class);
+
+    private final HttpRequestBase request;
+    private final ScheduledFuture<?> deadline;
+    private final JSONTokener tokener;
+    private final String arrayName;
+    private final JSONObject header = new JSONObject();
+
+    private boolean inArray;
+    private boolean exhausted;
+    private volatile boolean closed;
+
+    private volatile long lastRead = System.currentTimeMillis();
+    private volatile boolean reading;
+    private volatile boolean idleAborted;
+    private volatile ScheduledFuture<?> idleCheck;
+
+    APIStream(@Nonnull HttpRequestBase request, @Nullable ScheduledFuture<?> deadline, @Nonnull Reader reader,
+            @Nonnull String arrayName) throws CloudException {
+        this.request = request;
+        this.deadline = deadline;
+        this.tokener = new JSONTokener(reader);
+        this.arrayName = arrayName;
+        try {
+            if (tokener.nextClean() != '{') {
+                throw tokener.syntaxError("A JSON response must begin with '{'");
+            }
+            readFields();
+        } catch (JSONException e) {
+            close();
+            throw new CloudException(e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the top level fields read so far; fields that follow the streamed array are only present
+     *         once the stream has been read to the end
+     */
+    public @Nonnull
+    JSONObject getHeader() {
+        return header;
+    }
+
+    /**
+     * Reads the next element of the streamed array. The stream is closed once the last element has
+     * been read or an error occurs.
+     *
+     * @return the next element or <code>null</code> if there are no more
+     * @throws CloudException
+     *             the response could not be read or reports a failure
+     */
+    public @Nullable
+    JSONObject nextObject() throws CloudException {
+        if (idleAborted) {
+            close();
+            throw new CloudException("The response stream was aborted after being left unread");
+        }
+        if (closed || !inArray) {
+            return null;
+        }
+        reading = true;
+        try {
+            char c = tokener.nextClean();
+
+            if (c == ',') {
+                c = tokener.nextClean();
+            }
+            if (c == ']') {
+                inArray = false;
+                readSeparator();
+                readFields();
+                validate();
+                close();
+                return null;
+            }
+            tokener.back();
+
+            Object value = tokener.nextValue();
+
+            if (!(value instanceof JSONObject)) {
+                throw tokener.syntaxError("Expected an object in " + arrayName);
+            }
+            if (wire.isDebugEnabled()) {
+                wire.debug(value.toString());
+            }
+            return (JSONObject) value;
+        } catch (JSONException e) {
+            close();
+            throw new CloudException(e);
+        } catch (CloudException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        } finally {
+            lastRead = System.currentTimeMillis();
+            reading = false;
+        }
+    }
+
+    /**
+     * Checks the <code>Success</code> flag of the fields read so far, the streaming counterpart of
+     * {@link APIResponse#validate()}.
+     *
+     * @throws CloudException
+     *             the response reports a failure
+     */
+    public void validate() throws CloudException {
+        try {
+            if (header.has("Success") && !header.getBoolean("Success")) {
+                close();
+                throw new CloudException(header.optString("Message"));
+            }
+        } catch (JSONException e) {
+            close();
+            throw new CloudException(e);
+        }
+    }
+
+    /**
+     * @return true if the stream was aborted because it was left unread for too long
+     */
+    public boolean isIdleAborted() {
+        return idleAborted;
+    }
+
+    /**
+     * Aborts the request once the stream has gone unread for the specified time. Does nothing for a
+     * timeout of zero or less.
+     *
+     * @param pool
+     *            the pool whose scheduler runs the check
+     * @param idleTimeout
+     *            the maximum time in milliseconds between two reads
+     */
+    void abortWhenIdle(@Nonnull APIConnectionPool pool, long idleTimeout) {
+        if (idleTimeout > 0 && !closed) {
+            scheduleIdleCheck(pool, idleTimeout, idleTimeout);
+        }
+    }
+
+    private void scheduleIdleCheck(@Nonnull final APIConnectionPool pool, final long idleTimeout, long delay) {
+        idleCheck = pool.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long idle = System.currentTimeMillis() - lastRead;
+
+                if (idleCheck == null || closed) {
+                    return;
+                }
+                if (reading || idle < idleTimeout) {
+                    scheduleIdleCheck(pool, idleTimeout, reading ? idleTimeout : idleTimeout - idle);
+                    return;
+                }
+                wire.debug("Aborting " + request.getRequestLine() + " after " + idle + "ms without a read");
+                idleAborted = true;
+                request.abort();
+            }
+        }, delay);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        ScheduledFuture<?> check = idleCheck;
+
+        idleCheck = null;
+        if (check != null) {
+            check.cancel(false);
+        }
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        if (exhausted) {
+            request.releaseConnection();
+        } else {
+            request.abort();
+        }
+    }
+
+    /**
+     * Reads top level fields into the header until the streamed array begins or the object ends.
+     */
+    private void readFields() throws JSONException {
+        while (true) {
+            char c = tokener.nextClean();
+
+            if (c == '}') {
+                exhausted = true;
+                return;
+            }
+            if (c == ',') {
+                continue;
+            }
+            tokener.back();
+
+            String key = tokener.nextValue().toString();
+
+            c = tokener.nextClean();
+            if (c != ':' && c != '=') {
+                throw tokener.syntaxError("Expected ':' after " + key);
+            }
+            if (key.equals(arrayName)) {
+                c = tokener.nextClean();
+                if (c == '[') {
+                    c = tokener.nextClean();
+                    if (c == ']') {
+                        readSeparator();
+                        continue;
+                    }
+                    tokener.back();
+                    inArray = true;
+                    return;
+                }
+                // most likely null when the call failed
+                tokener.back();
+                tokener.nextValue();
+            } else {
+                header.put(key, tokener.nextValue());
+            }
+        }
+    }
+
+    private void readSeparator() throws JSONException {
+        char c = tokener.nextClean();
+
+        if (c != ',') {
+            tokener.back();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONObject;
+
+/**
+ * Lazily converted results of a streamed list call. Elements are converted to Dasein resources only
+ * as an iterator reaches them, so a caller that stops early pays neither for the remaining
+ * conversions nor for reading the rest of the response.
+ * <p>
+ * {@link #start()} opens the first stream right away so that request failures surface from the list
+ * method itself. The first iterator consumes that stream. An iterator releases its connection when it
+ * runs out of elements or hits an error, and can be closed to release it early. A stream that is not
+ * read for a while, because it was never iterated or its iterator was abandoned, is aborted by the
+ * stream idle timeout, and the next iterator then opens a new stream.
+ * </p>
+ * <p>
+ * An iterator keeps the raw elements it reads, up to {@link #REPLAY_LIMIT} of them. If it reaches the
+ * end of a stream within that limit, later iterators replay those elements instead of issuing the
+ * request again; otherwise each later iterator opens a new stream.
+ * </p>
+ * <p>
+ * Iterators cannot throw checked exceptions, so failures while iterating are reported as a
+ * {@link RuntimeException} wrapping the {@link CloudException} or {@link InternalException}.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+public abstract class APIStreamIterable<T> implements Iterable<T> {
+    /**
+     * The maximum number of elements kept for replay by later iterators.
+     */
+    static public final int REPLAY_LIMIT = 500;
+
+    private APIStream first;
+    private List<JSONObject> replay;
+
+    /**
+     * Opens the stream consumed by the first iterator and checks that the call succeeded.
+     *
+     * @return this iterable
+     */
+    public @Nonnull
+    APIStreamIterable<T> start() throws CloudException, InternalException {
+        APIStream stream = open();
+
+        stream.validate();
+        synchronized (this) {
+            first = stream;
+        }
+        return this;
+    }
+
+    /**
+     * @return a new stream over the elements to convert
+     */
+    protected abstract @Nonnull
+    APIStream open() throws CloudException, InternalException;
+
+    /**
+     * Converts a single element.
+     *
+     * @param json
+     *            the element read from the stream
+     * @return the converted resource or <code>null</code> to skip the element
+     */
+    protected abstract @Nullable
+    T toResource(@Nonnull JSONObject json) throws CloudException, InternalException;
+
+    @Override
+    public @Nonnull
+    StreamIterator iterator() {
+        APIStream stream;
+
+        synchronized (this) {
+            if (replay != null) {
+                return new StreamIterator(null, replay.iterator());
+            }
+            stream = first;
+            first = null;
+        }
+        if (stream != null && stream.isIdleAborted()) {
+            stream.close();
+            stream = null;
+        }
+        if (stream == null) {
+            try {
+                stream = open();
+                stream.validate();
+            } catch (CloudException e) {
+                throw new RuntimeException(e);
+            } catch (InternalException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return new StreamIterator(stream, null);
+    }
+
+    public class StreamIterator implements Iterator<T>, Closeable {
+        private final APIStream stream;
+        private final Iterator<JSONObject> replayed;
+        private List<JSONObject> recorded = new ArrayList<JSONObject>();
+        private T next;
+        private boolean done;
+
+        private StreamIterator(@Nullable APIStream stream, @Nullable Iterator<JSONObject> replayed) {
+            this.stream = stream;
+            this.replayed = replayed;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            try {
+                next = convertNext();
+                if (next != null) {
+                    return true;
+                }
+                done = true;
+                return false;
+            } catch (CloudException e) {
+                close();
+                throw new RuntimeException(e);
+            } catch (InternalException e) {
+                close();
+                throw new RuntimeException(e);
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private @Nullable
+        T convertNext() throws CloudException, InternalException {
+            JSONObject json;
+
+            while ((json = read()) != null) {
+                T item = toResource(json);
+
+                if (item != null) {
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads the next raw element, recording it for replay while the limit allows. Once the stream
+         * ends with every element recorded, the recording becomes the replay for later iterators.
+         */
+        private @Nullable
+        JSONObject read() throws CloudException {
+            if (stream == null) {
+                return (replayed.hasNext() ? replayed.next() : null);
+            }
+            JSONObject json = stream.nextObject();
+
+            if (recorded != null) {
+                if (json == null) {
+                    synchronized (APIStreamIterable.this) {
+                        replay = recorded;
+                    }
+                    recorded = null;
+                } else if (recorded.size() < REPLAY_LIMIT) {
+                    recorded.add(json);
+                } else {
+                    recorded = null;
+                }
+            }
+            return json;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T item = next;
+
+            next = null;
+            return item;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            next = null;
+            recorded = null;
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
+}
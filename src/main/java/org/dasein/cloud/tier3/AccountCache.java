@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.uom.time.Day;
+import org.dasein.util.uom.time.TimePeriod;
+
+/**
+ * Cached values of an account looked up by key, such as the snapshots of a server or the default
+ * hardware group of a data center. The values of each account are kept in a Dasein {@link Cache} at
+ * the {@link CacheLevel#CLOUD_ACCOUNT} level, like the other caches of this driver, so they are shared
+ * by every provider connected to the same account and expire with the rest of the Dasein cache. An
+ * account keeps at most a fixed number of values, dropping the least recently used one first.
+ * <p>
+ * {@link #load(Tier3, String, Object, Callable)} coalesces concurrent loads of the same key, so that a
+ * slow load neither runs twice nor holds up the loads of other keys.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+public class AccountCache<V> {
+    static private final TimePeriod<Day> LIFETIME = new TimePeriod<Day>(1, TimePeriod.DAY);
+
+    private final String name;
+    private final int maxEntries;
+
+    /**
+     * @param name
+     *            the name of the underlying Dasein cache, unique to this driver
+     * @param maxEntries
+     *            the maximum number of values kept per account
+     */
+    public AccountCache(@Nonnull String name, int maxEntries) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * @return the cached value or <code>null</code> if there is none
+     */
+    public @Nullable
+    V get(@Nonnull Tier3 provider, @Nonnull String key) throws CloudException {
+        return get(provider, key, 0L);
+    }
+
+    /**
+     * @param maxAge
+     *            the maximum age in milliseconds of the value, or 0 for no limit
+     * @return the cached value or <code>null</code> if there is none or it is older than the maximum age
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable
+    V get(@Nonnull Tier3 provider, @Nonnull String key, long maxAge) throws CloudException {
+        Store store = getStore(provider, false);
+
+        return (store == null ? null : (V) store.get(key, maxAge));
+    }
+
+    public void put(@Nonnull Tier3 provider, @Nonnull String key, @Nonnull V value) throws CloudException {
+        getStore(provider, true).put(key, value);
+    }
+
+    public void remove(@Nonnull Tier3 provider, @Nonnull String key) throws CloudException {
+        Store store = getStore(provider, false);
+
+        if (store != null) {
+            store.remove(key);
+        }
+    }
+
+    /**
+     * @return a callback dropping a key from the current account, safe to run later on any thread and
+     *         whatever the context of the provider is by then
+     */
+    public @Nonnull
+    Runnable remover(@Nonnull Tier3 provider, @Nonnull final String key) throws CloudException {
+        final Store store = getStore(provider, false);
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (store != null) {
+                    store.remove(key);
+                }
+            }
+        };
+    }
+
+    /**
+     * Drops every value of the current account.
+     */
+    public void clear(@Nonnull Tier3 provider) throws CloudException {
+        Store store = getStore(provider, false);
+
+        if (store != null) {
+            store.clear();
+        }
+    }
+
+    /**
+     * Loads a value and caches it. If another caller is already loading the same key, this one waits
+     * for that load instead of starting its own; if the key has been loaded again since the caller
+     * read <code>seen</code>, the newer value is returned without loading.
+     *
+     * @param key
+     *            the key to load
+     * @param seen
+     *            the value the caller found in the cache, or <code>null</code> if there was none
+     * @param loader
+     *            loads the value, on the calling thread
+     * @return the loaded or newer value
+     * @throws CloudException
+     *             the load failed
+     * @throws InternalException
+     *             the load failed
+     */
+    @SuppressWarnings("unchecked")
+    public @Nonnull
+    V load(@Nonnull Tier3 provider, @Nonnull final String key, @Nullable V seen, @Nonnull final Callable<V> loader)
+            throws CloudException, InternalException {
+        final Store store = getStore(provider, true);
+        FutureTask<Object> task;
+        boolean owner = false;
+
+        synchronized (store) {
+            Object current = store.get(key, 0L);
+
+            if (current != null && current != seen) {
+                return (V) current;
+            }
+            task = store.loads.get(key);
+            if (task == null) {
+                task = new FutureTask<Object>(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        V value = loader.call();
+
+                        store.put(key, value);
+                        return value;
+                    }
+                });
+                store.loads.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (store) {
+                    store.loads.remove(key);
+                }
+            }
+        }
+        try {
+            return (V) task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof CloudException) {
+                throw (CloudException) cause;
+            }
+            if (cause instanceof InternalException) {
+                throw (InternalException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CloudException(cause);
+        }
+    }
+
+    private @Nullable
+    Store getStore(@Nonnull Tier3 provider, boolean create) throws CloudException {
+        ProviderContext ctx = provider.getContext();
+
+        if (ctx == null) {
+            throw new NoContextException();
+        }
+        Cache<Store> cache = Cache.getInstance(provider, name, Store.class, CacheLevel.CLOUD_ACCOUNT, LIFETIME);
+        Store store = first(cache.get(ctx));
+
+        if (store != null || !create) {
+            return store;
+        }
+        synchronized (this) {
+            store = first(cache.get(ctx));
+            if (store == null) {
+                store = new Store(maxEntries);
+                cache.put(ctx, Collections.singletonList(store));
+            }
+            return store;
+        }
+    }
+
+    static private @Nullable
+    Store first(@Nullable Iterable<Store> stores) {
+        if (stores != null) {
+            Iterator<Store> it = stores.iterator();
+
+            if (it.hasNext()) {
+                return it.next();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The values of one account, least recently used first.
+     */
+    static private class Store {
+        final Map<String, FutureTask<Object>> loads = new HashMap<String, FutureTask<Object>>();
+        private final LinkedHashMap<String, Entry> entries;
+
+        Store(final int maxEntries) {
+            entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                private static final long serialVersionUID = -1516946425232460317L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        synchronized @Nullable
+        Object get(@Nonnull String key, long maxAge) {
+            Entry entry = entries.get(key);
+
+            if (entry == null) {
+                return null;
+            }
+            if (maxAge > 0 && System.currentTimeMillis() - entry.storedAt >= maxAge) {
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized void put(@Nonnull String key, @Nonnull Object value) {
+            entries.put(key, new Entry(value));
+        }
+
+        synchronized void remove(@Nonnull String key) {
+            entries.remove(key);
+        }
+
+        synchronized void clear() {
+            entries.clear();
+        }
+    }
+
+    static private class Entry {
+        final Object value;
+        final long storedAt = System.currentTimeMillis();
+
+        Entry(@Nonnull Object value) {
+            this.value = value;
+        }
+    }
+}
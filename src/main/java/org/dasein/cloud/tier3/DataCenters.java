@@ -21,7 +21,13 @@ package org.dasein.cloud.tier3;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -38,6 +44,7 @@ import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.uom.time.Day;
 import org.dasein.util.uom.time.TimePeriod;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -60,14 +67,7 @@ public class DataCenters implements DataCenterServices {
     @Override
     public @Nullable
     DataCenter getDataCenter(@Nonnull String dataCenterId) throws InternalException, CloudException {
-        for (Region region : listRegions()) {
-            for (DataCenter dc : listDataCenters(region.getProviderRegionId())) {
-                if (dataCenterId.equals(dc.getProviderDataCenterId())) {
-                    return dc;
-                }
-            }
-        }
-        return null;
+        return getTopology().dataCenters.get(dataCenterId);
     }
 
     @Override
@@ -85,12 +85,7 @@ public class DataCenters implements DataCenterServices {
     @Override
     public @Nullable
     Region getRegion(@Nonnull String providerRegionId) throws InternalException, CloudException {
-        for (Region r : listRegions()) {
-            if (providerRegionId.equals(r.getProviderRegionId())) {
-                return r;
-            }
-        }
-        return null;
+        return getTopology().regions.get(providerRegionId);
     }
 
     @Override
@@ -98,51 +93,13 @@ public class DataCenters implements DataCenterServices {
     Collection<DataCenter> listDataCenters(@Nonnull String providerRegionId) throws InternalException, CloudException {
         APITrace.begin(provider, "listDataCenters");
         try {
-            Region region = getRegion(providerRegionId);
-            if (region == null) {
-                throw new CloudException("No such region: " + providerRegionId);
-            }
-
-            ProviderContext ctx = provider.getContext();
-            if (ctx == null) {
-                throw new NoContextException();
-            }
-
-            Cache<DataCenter> cache = Cache.getInstance(provider, "dataCenters", DataCenter.class,
-                    CacheLevel.REGION_ACCOUNT, new TimePeriod<Day>(1, TimePeriod.DAY));
-            Collection<DataCenter> dcList = (Collection<DataCenter>) cache.get(ctx);
+            Topology topology = getTopology();
+            List<DataCenter> dcList = topology.regionDataCenters.get(providerRegionId);
 
             if (dcList == null) {
-                dcList = new ArrayList<DataCenter>();
-
-                logger.info("Get data center locations for " + providerRegionId + " for account "
-                        + ctx.getAccountNumber());
-
-                APIHandler method = new APIHandler(provider);
-                APIResponse response = method.post("Account/GetLocations/JSON", "");
-                response.validate();
-
-                JSONObject json = response.getJSON();
-                if (json.has("Locations")) {
-                    for (int i = 0; i < json.getJSONArray("Locations").length(); i++) {
-                        JSONObject location = json.getJSONArray("Locations").getJSONObject(i);
-                        DataCenter dc = new DataCenter();
-                        String apiLocation = location.getString("Alias");
-
-                        dc.setActive(true);
-                        dc.setAvailable(true);
-                        dc.setName(apiLocation);
-                        dc.setProviderDataCenterId(apiLocation);
-                        dc.setRegionId(providerRegionId);
-                        dcList.add(dc);
-                    }
-                }
-
-                cache.put(ctx, dcList);
+                throw new CloudException("No such region: " + providerRegionId);
             }
             return dcList;
-        } catch (JSONException e) {
-            throw new CloudException(e);
         } finally {
             APITrace.end();
         }
@@ -152,46 +109,95 @@ public class DataCenters implements DataCenterServices {
     public Collection<Region> listRegions() throws InternalException, CloudException {
         APITrace.begin(provider, "listRegions");
         try {
-            ProviderContext ctx = provider.getContext();
-            if (ctx == null) {
-                throw new NoContextException();
+            return Collections.unmodifiableCollection(getTopology().regions.values());
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Regions and data centers both come from <code>Account/GetLocations</code>, so they are loaded
+     * together and cached as one index for a day.
+     */
+    private @Nonnull
+    Topology getTopology() throws InternalException, CloudException {
+        ProviderContext ctx = provider.getContext();
+        if (ctx == null) {
+            throw new NoContextException();
+        }
+
+        Cache<Topology> cache = Cache.getInstance(provider, "topology", Topology.class, CacheLevel.CLOUD_ACCOUNT,
+                new TimePeriod<Day>(1, TimePeriod.DAY));
+        Iterable<Topology> cached = cache.get(ctx);
+
+        if (cached != null) {
+            Iterator<Topology> it = cached.iterator();
+
+            if (it.hasNext()) {
+                return it.next();
             }
+        }
+        APITrace.begin(provider, "getLocations");
+        try {
+            logger.info("Get data center locations for account " + ctx.getAccountNumber());
+
+            APIHandler method = new APIHandler(provider);
+            APIResponse response = method.post("Account/GetLocations/JSON", "");
+            response.validate();
 
-            Cache<Region> cache = Cache.getInstance(provider, "regions", Region.class, CacheLevel.CLOUD_ACCOUNT,
-                    new TimePeriod<Day>(1, TimePeriod.DAY));
-            Collection<Region> regions = (Collection<Region>) cache.get(ctx);
+            Topology topology = new Topology(response.getJSON());
+
+            cache.put(ctx, Collections.singletonList(topology));
+            return topology;
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        } finally {
+            APITrace.end();
+        }
+    }
 
-            if (regions == null) {
-                regions = new ArrayList<Region>();
+    /**
+     * Immutable index of the regions and data centers of an account.
+     */
+    static private class Topology {
+        final Map<String, Region> regions = new LinkedHashMap<String, Region>();
+        final Map<String, List<DataCenter>> regionDataCenters = new HashMap<String, List<DataCenter>>();
+        final Map<String, DataCenter> dataCenters = new HashMap<String, DataCenter>();
 
-                APIHandler method = new APIHandler(provider);
-                APIResponse response = method.post("Account/GetLocations/JSON", "");
-                response.validate();
+        Topology(@Nonnull JSONObject json) throws JSONException {
+            if (json.has("Locations")) {
+                JSONArray locations = json.getJSONArray("Locations");
 
-                JSONObject json = response.getJSON();
-                if (json.has("Locations")) {
-                    for (int i = 0; i < json.getJSONArray("Locations").length(); i++) {
-                        JSONObject location = json.getJSONArray("Locations").getJSONObject(i);
-                        String apiRegion = location.getString("Region");
+                for (int i = 0; i < locations.length(); i++) {
+                    JSONObject location = locations.getJSONObject(i);
+                    String apiRegion = location.getString("Region");
+                    String apiLocation = location.getString("Alias");
 
+                    if (!regions.containsKey(apiRegion)) {
                         Region region = new Region(apiRegion, apiRegion, true, true);
                         if (apiRegion.contains(" ")) {
                             region.setJurisdiction(apiRegion.substring(1, apiRegion.indexOf(" ")));
                         } else {
                             region.setJurisdiction(apiRegion);
                         }
-                        regions.add(region);
+                        regions.put(apiRegion, region);
+                        regionDataCenters.put(apiRegion, new ArrayList<DataCenter>());
                     }
-                }
 
-                cache.put(ctx, regions);
-            }
-            return regions;
+                    DataCenter dc = new DataCenter();
 
-        } catch (JSONException e) {
-            throw new CloudException(e);
-        } finally {
-            APITrace.end();
+                    dc.setActive(true);
+                    dc.setAvailable(true);
+                    dc.setName(apiLocation);
+                    dc.setProviderDataCenterId(apiLocation);
+                    dc.setRegionId(apiRegion);
+                    regionDataCenters.get(apiRegion).add(dc);
+                    dataCenters.put(apiLocation, dc);
+                }
+            }
+            for (Map.Entry<String, List<DataCenter>> entry : regionDataCenters.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
         }
     }
 }
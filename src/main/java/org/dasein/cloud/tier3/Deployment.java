@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+
+/**
+ * The progress of a blueprint deployment, identified by the <code>RequestID</code> CenturyLink hands
+ * back from asynchronous operations such as creating a server or a snapshot. Deployments are kept up
+ * to date by the {@link DeploymentTracker} of the provider; callers only read or wait on them.
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+public class Deployment {
+    static private final Logger logger = Tier3.getLogger(Deployment.class);
+
+    private final int requestId;
+
+    private volatile int percentComplete;
+    private volatile String status;
+    private volatile List<String> servers = Collections.emptyList();
+    private volatile CloudException error;
+
+    private final CountDownLatch serversKnown = new CountDownLatch(1);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Runnable> callbacks = new ArrayList<Runnable>();
+
+    Deployment(int requestId) {
+        this.requestId = requestId;
+    }
+
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public int getPercentComplete() {
+        return percentComplete;
+    }
+
+    /**
+     * @return the last <code>CurrentStatus</code> reported, or <code>null</code> before the first poll
+     */
+    public @Nullable
+    String getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the names of the servers the deployment has created so far
+     */
+    public @Nonnull
+    List<String> getServers() {
+        return servers;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * @return the reason the deployment failed or could no longer be tracked, if it did
+     */
+    public @Nullable
+    CloudException getError() {
+        return error;
+    }
+
+    /**
+     * Waits until the deployment names at least one server, or ends.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return the servers known when the wait ended, possibly none if it timed out
+     * @throws CloudException
+     *             the deployment failed before naming a server or the caller was interrupted
+     */
+    public @Nonnull
+    List<String> awaitServers(long timeout, @Nonnull TimeUnit unit) throws CloudException {
+        await(serversKnown, timeout, unit);
+        List<String> current = servers;
+
+        if (current.isEmpty() && error != null) {
+            throw error;
+        }
+        return current;
+    }
+
+    /**
+     * Waits until the deployment ends.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return true if the deployment succeeded, false if it is still running
+     * @throws CloudException
+     *             the deployment failed or the caller was interrupted
+     */
+    public boolean await(long timeout, @Nonnull TimeUnit unit) throws CloudException {
+        boolean finished = await(done, timeout, unit);
+
+        if (error != null) {
+            throw error;
+        }
+        return finished;
+    }
+
+    /**
+     * Runs a callback once the deployment ends, whether it succeeded or not, or right away if it
+     * already has. Callbacks run on a tracker thread and should return quickly.
+     *
+     * @param callback
+     *            the callback to run
+     */
+    public void whenDone(@Nonnull Runnable callback) {
+        synchronized (callbacks) {
+            if (!isDone()) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        run(callback);
+    }
+
+    void update(int percentComplete, @Nullable String status, @Nonnull List<String> servers) {
+        this.percentComplete = percentComplete;
+        this.status = status;
+        if (!servers.isEmpty()) {
+            this.servers = Collections.unmodifiableList(new ArrayList<String>(servers));
+            serversKnown.countDown();
+        }
+    }
+
+    void succeed() {
+        serversKnown.countDown();
+        done.countDown();
+        complete();
+    }
+
+    void fail(@Nonnull CloudException error) {
+        this.error = error;
+        serversKnown.countDown();
+        done.countDown();
+        complete();
+    }
+
+    private void complete() {
+        ArrayList<Runnable> pending;
+
+        synchronized (callbacks) {
+            pending = new ArrayList<Runnable>(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : pending) {
+            run(callback);
+        }
+    }
+
+    private void run(@Nonnull Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            logger.warn("Deployment " + requestId + " callback failed: " + e.getMessage());
+        }
+    }
+
+    private boolean await(@Nonnull CountDownLatch latch, long timeout, @Nonnull TimeUnit unit) throws CloudException {
+        try {
+            return latch.await(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudException(e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.util.APITrace;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Follows every outstanding blueprint deployment of a provider on a shared scheduler instead of one
+ * sleeping thread per caller. Each deployment is polled through
+ * <code>Blueprint/GetDeploymentStatus</code> on its own adaptive schedule: quickly at first, since
+ * most requests hand back a server name within seconds, then backing off geometrically for long
+ * running builds. Polling stops when the deployment succeeds, fails or exceeds the tracking timeout.
+ * <p>
+ * Tuned with the <code>deploymentPollInitial</code>, <code>deploymentPollMax</code> (both in ms,
+ * default 2000 and 30000), <code>deploymentPollThreads</code> (default 2) and
+ * <code>deploymentTimeout</code> (ms, default one hour) custom properties.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+public class DeploymentTracker {
+    static private final Logger logger = Tier3.getLogger(DeploymentTracker.class);
+
+    static public final String POLL_INITIAL = "deploymentPollInitial";
+    static public final String POLL_MAX = "deploymentPollMax";
+    static public final String POLL_THREADS = "deploymentPollThreads";
+    static public final String TIMEOUT = "deploymentTimeout";
+
+    static private final double BACKOFF = 1.5;
+    static private final int MAX_CONSECUTIVE_ERRORS = 3;
+
+    private final Tier3 provider;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ConcurrentHashMap<Integer, Deployment> deployments = new ConcurrentHashMap<Integer, Deployment>();
+    private final long initialDelay;
+    private final long maxDelay;
+    private final long timeout;
+
+    DeploymentTracker(@Nonnull Tier3 provider) {
+        this.provider = provider;
+        initialDelay = Math.max(100, provider.getIntProperty(POLL_INITIAL, 2000));
+        maxDelay = Math.max(initialDelay, provider.getIntProperty(POLL_MAX, 30000));
+        timeout = Math.max(maxDelay, provider.getIntProperty(TIMEOUT, 3600000));
+
+        final AtomicInteger count = new AtomicInteger(0);
+
+        scheduler = new ScheduledThreadPoolExecutor(Math.max(1, provider.getIntProperty(POLL_THREADS, 2)),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Tier3 deployment tracker " + count.incrementAndGet());
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Starts tracking a deployment, or returns the existing handle if it is already tracked.
+     *
+     * @param requestId
+     *            the <code>RequestID</code> of the deployment
+     * @return the deployment, updated in the background
+     * @throws CloudException
+     *             the tracker has been shut down
+     */
+    public @Nonnull
+    Deployment track(int requestId) throws CloudException {
+        Deployment deployment = new Deployment(requestId);
+        Deployment existing = deployments.putIfAbsent(requestId, deployment);
+
+        if (existing != null) {
+            return existing;
+        }
+        provider.hold();
+        try {
+            schedule(new Poll(deployment, System.currentTimeMillis() + timeout), 0L);
+        } catch (RejectedExecutionException e) {
+            finish(deployment, new CloudException("The deployment tracker has been shut down"));
+            throw new CloudException(e);
+        }
+        return deployment;
+    }
+
+    /**
+     * @return the number of deployments currently being polled
+     */
+    public int getOutstandingCount() {
+        return deployments.size();
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+        for (Deployment deployment : new ArrayList<Deployment>(deployments.values())) {
+            finish(deployment, new CloudException("The provider was closed before deployment "
+                    + deployment.getRequestId() + " completed"));
+        }
+    }
+
+    private void schedule(@Nonnull Poll poll, long delay) {
+        scheduler.schedule(poll, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void finish(@Nonnull Deployment deployment, CloudException error) {
+        if (deployments.remove(deployment.getRequestId(), deployment)) {
+            if (error == null) {
+                deployment.succeed();
+            } else {
+                deployment.fail(error);
+            }
+            provider.release();
+        }
+    }
+
+    private class Poll implements Runnable {
+        private final Deployment deployment;
+        private final long deadline;
+        private long delay;
+        private int errors;
+
+        Poll(@Nonnull Deployment deployment, long deadline) {
+            this.deployment = deployment;
+            this.deadline = deadline;
+            this.delay = initialDelay;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (poll()) {
+                    return;
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    finish(deployment, new CloudException("Timed out tracking deployment " + deployment.getRequestId()));
+                    return;
+                }
+                schedule(this, delay);
+                delay = Math.min(maxDelay, (long) (delay * BACKOFF));
+            } catch (RejectedExecutionException e) {
+                finish(deployment, new CloudException("The deployment tracker has been shut down"));
+            } catch (Throwable t) {
+                logger.error("Unexpected error tracking deployment " + deployment.getRequestId(), t);
+                finish(deployment, new CloudException(t));
+            }
+        }
+
+        /**
+         * @return true if the deployment has ended
+         */
+        private boolean poll() {
+            JSONObject json;
+
+            APITrace.begin(provider, "getDeploymentStatus");
+            try {
+                json = provider.getDeploymentStatus(deployment.getRequestId());
+                errors = 0;
+            } catch (Exception e) {
+                if (++errors >= MAX_CONSECUTIVE_ERRORS) {
+                    finish(deployment, (e instanceof CloudException ? (CloudException) e : new CloudException(e)));
+                    return true;
+                }
+                logger.warn("Failed to poll deployment " + deployment.getRequestId() + ": " + e.getMessage());
+                return false;
+            } finally {
+                APITrace.end();
+            }
+            try {
+                ArrayList<String> servers = new ArrayList<String>();
+
+                if (json.has("Servers") && !json.isNull("Servers")) {
+                    JSONArray list = json.getJSONArray("Servers");
+
+                    for (int i = 0; i < list.length(); i++) {
+                        servers.add(list.get(i).toString());
+                    }
+                }
+                String status = (json.has("CurrentStatus") && !json.isNull("CurrentStatus") ? json
+                        .getString("CurrentStatus") : null);
+
+                deployment.update(json.optInt("PercentComplete", deployment.getPercentComplete()), status, servers);
+                if ("Succeeded".equalsIgnoreCase(status)) {
+                    finish(deployment, null);
+                    return true;
+                }
+                if ("Failed".equalsIgnoreCase(status)) {
+                    String message = json.optString("Message");
+
+                    finish(deployment, new CloudException("Deployment " + deployment.getRequestId() + " failed"
+                            + (message.length() > 0 ? ": " + message : "")));
+                    return true;
+                }
+                return false;
+            } catch (JSONException e) {
+                finish(deployment, new CloudException(e));
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.util.APITrace;
+import org.dasein.util.CalendarWrapper;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Hands out the <code>Tier3.API.Cookie</code> session used to authenticate API calls. Sessions are
+ * shared by every provider connected to the same endpoint and account, the same scope the session
+ * cache had before, and logons for one account are coalesced so that concurrent callers wait for a
+ * single <code>Auth/Logon/</code> request instead of racing each other.
+ * <p>
+ * CenturyLink expires sessions after four hours. A session is refreshed by the first caller to use it
+ * in the last fifteen minutes of its life while other callers keep using it, and a session the cloud
+ * rejects early can be dropped with {@link #invalidate(String)} so that the next caller logs on again.
+ * </p>
+ *
+ * @version 2014.07 initial version
+ * @since 2014.07
+ */
+class SessionManager {
+    static private final Logger logger = Tier3.getLogger(SessionManager.class);
+
+    static private final long TTL = CalendarWrapper.HOUR * 4;
+    static private final long REFRESH_MARGIN = CalendarWrapper.MINUTE * 15;
+
+    static private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+
+    static private @Nonnull
+    Slot getSlot(@Nonnull String key) {
+        Slot slot = slots.get(key);
+
+        if (slot == null) {
+            Slot created = new Slot();
+
+            slot = slots.putIfAbsent(key, created);
+            if (slot == null) {
+                slot = created;
+            }
+        }
+        return slot;
+    }
+
+    private final Tier3 provider;
+    private volatile Credentials credentials;
+
+    SessionManager(@Nonnull Tier3 provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @return the session cookie to send with API calls for the current context
+     * @throws CloudException
+     *             the logon was rejected
+     * @throws InternalException
+     *             the context has no usable credentials
+     */
+    @Nonnull
+    String getSession() throws CloudException, InternalException {
+        Credentials c = getCredentials();
+        Slot slot = getSlot(c.key);
+        Session session = slot.session.get();
+
+        if (session != null && session.matches(c)) {
+            long now = System.currentTimeMillis();
+
+            if (now < session.refreshAt) {
+                return session.cookie;
+            }
+            if (now < session.expiresAt) {
+                // someone else is already refreshing, the current session is still good meanwhile
+                if (!slot.lock.tryLock()) {
+                    return session.cookie;
+                }
+                try {
+                    return logon(slot, c);
+                } catch (CloudException e) {
+                    logger.warn("Unable to refresh the session for " + c.accountNumber + ": " + e.getMessage());
+                    return session.cookie;
+                } finally {
+                    slot.lock.unlock();
+                }
+            }
+        }
+        slot.lock.lock();
+        try {
+            return logon(slot, c);
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops a session the cloud no longer accepts. Nothing happens if the session has already been
+     * replaced, so that concurrent callers seeing the same rejection trigger only one new logon.
+     *
+     * @param cookie
+     *            the rejected session cookie
+     */
+    void invalidate(@Nonnull String cookie) {
+        Credentials c = credentials;
+
+        if (c == null) {
+            return;
+        }
+        Slot slot = slots.get(c.key);
+
+        if (slot != null) {
+            Session session = slot.session.get();
+
+            if (session != null && session.cookie.equals(cookie)) {
+                slot.session.compareAndSet(session, null);
+            }
+        }
+    }
+
+    /**
+     * Logs on unless another caller holding the slot lock has just done so.
+     */
+    private @Nonnull
+    String logon(@Nonnull Slot slot, @Nonnull Credentials c) throws CloudException, InternalException {
+        Session session = slot.session.get();
+
+        if (session != null && session.matches(c) && System.currentTimeMillis() < session.refreshAt) {
+            return session.cookie;
+        }
+        APITrace.begin(provider, "logon");
+        try {
+            JSONObject json = new JSONObject();
+
+            json.put("APIKey", c.getApiKey());
+            json.put("Password", c.getApiPass());
+            APIResponse response = new APIHandler(provider).post("Auth/Logon/", json.toString());
+
+            if (response == null || response.getJSON() == null || !response.getJSON().has("Session")) {
+                throw new InternalException("Error obtaining session with supplied credentials");
+            }
+            session = new Session(response.getJSON().getString("Session"), c.fingerprint);
+            slot.session.set(session);
+            return session.cookie;
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Reads the API key pair of the current context and digests it, once per context.
+     */
+    private @Nonnull
+    Credentials getCredentials() throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+        Credentials c = credentials;
+
+        if (ctx == null) {
+            throw new NoContextException();
+        }
+        if (c == null || c.context != ctx) {
+            c = new Credentials(ctx);
+            credentials = c;
+        }
+        return c;
+    }
+
+    /**
+     * The API key pair of one context. The key pair stays in the byte arrays the context already holds
+     * and is only decoded to build a logon request; sessions are matched against a SHA-256 digest of
+     * the account and key pair rather than against the cleartext.
+     */
+    static private class Credentials {
+        final ProviderContext context;
+        final String key;
+        final String accountNumber;
+        final byte[][] keys;
+        final byte[] fingerprint;
+
+        Credentials(@Nonnull ProviderContext ctx) throws InternalException {
+            keys = (byte[][]) ctx.getConfigurationValue("apiAccessKey");
+            if (keys == null || keys.length < 2 || keys[0] == null || keys[1] == null) {
+                throw new InternalException("No API access key was provided in the context");
+            }
+            context = ctx;
+            accountNumber = ctx.getAccountNumber();
+            key = ctx.getEndpoint() + "|" + accountNumber;
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+                if (accountNumber != null) {
+                    digest.update(accountNumber.getBytes("utf-8"));
+                }
+                digest.update((byte) 0);
+                digest.update(keys[0]);
+                digest.update((byte) 0);
+                digest.update(keys[1]);
+                fingerprint = digest.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new InternalException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new InternalException(e);
+            }
+        }
+
+        @Nonnull
+        String getApiKey() throws InternalException {
+            return decode(keys[0]);
+        }
+
+        @Nonnull
+        String getApiPass() throws InternalException {
+            return decode(keys[1]);
+        }
+
+        static private @Nonnull
+        String decode(@Nonnull byte[] value) throws InternalException {
+            try {
+                return new String(value, "utf-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new InternalException(e);
+            }
+        }
+    }
+
+    static private class Session {
+        final String cookie;
+        final byte[] fingerprint;
+        final long refreshAt;
+        final long expiresAt;
+
+        Session(@Nonnull String cookie, @Nonnull byte[] fingerprint) {
+            long now = System.currentTimeMillis();
+
+            this.cookie = cookie;
+            this.fingerprint = fingerprint;
+            expiresAt = now + TTL;
+            refreshAt = expiresAt - REFRESH_MARGIN;
+        }
+
+        boolean matches(@Nonnull Credentials c) {
+            return MessageDigest.isEqual(fingerprint, c.fingerprint);
+        }
+    }
+
+    static private class Slot {
+        final ReentrantLock lock = new ReentrantLock();
+        final AtomicReference<Session> session = new AtomicReference<Session>();
+    }
+}
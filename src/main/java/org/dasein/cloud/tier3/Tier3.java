@@ -19,10 +19,9 @@
 
 package org.dasein.cloud.tier3;
 
-import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.Properties;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -39,10 +38,6 @@ import org.dasein.cloud.tier3.compute.Tier3ComputeServices;
 import org.dasein.cloud.tier3.compute.Tier3ComputeTranslations;
 import org.dasein.cloud.tier3.network.Tier3NetworkServices;
 import org.dasein.cloud.tier3.network.Tier3NetworkTranslations;
-import org.dasein.cloud.util.Cache;
-import org.dasein.cloud.util.CacheLevel;
-import org.dasein.util.uom.time.Hour;
-import org.dasein.util.uom.time.TimePeriod;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -85,9 +80,123 @@ public class Tier3 extends AbstractCloud {
                 + getLastItem(cls.getName()));
     }
 
+    private final Tier3ComputeTranslations computeTranslations = new Tier3ComputeTranslations();
+    private final Tier3NetworkTranslations networkTranslations = new Tier3NetworkTranslations();
+    private final SessionManager sessionManager = new SessionManager(this);
+    private APIClientConfig clientConfig;
+    private APIConnectionPool connectionPool;
+    private APIExecutor executor;
+    private DeploymentTracker deploymentTracker;
+
     public Tier3() {
     }
 
+    @Override
+    public void close() {
+        try {
+            synchronized (this) {
+                if (connectionPool != null) {
+                    connectionPool.shutdown();
+                    connectionPool = null;
+                }
+                if (deploymentTracker != null) {
+                    deploymentTracker.shutdown();
+                    deploymentTracker = null;
+                }
+                if (executor != null) {
+                    executor.shutdown();
+                    executor = null;
+                }
+                clientConfig = null;
+            }
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * @return the connection settings of the current context, rebuilt whenever the context or its
+     *         custom properties are replaced
+     */
+    synchronized @Nonnull
+    APIClientConfig getClientConfig() {
+        ProviderContext ctx = getContext();
+
+        if (clientConfig == null || !clientConfig.isFor(ctx)) {
+            clientConfig = new APIClientConfig(ctx);
+        }
+        return clientConfig;
+    }
+
+    synchronized @Nonnull
+    APIConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            connectionPool = new APIConnectionPool(this, getClientConfig());
+        }
+        return connectionPool;
+    }
+
+    @Nonnull
+    SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    /**
+     * @return the bounded executor that runs asynchronous API work for this provider
+     */
+    public synchronized @Nonnull
+    APIExecutor getExecutor() {
+        if (executor == null) {
+            executor = new APIExecutor(this);
+        }
+        return executor;
+    }
+
+    /**
+     * @return the tracker that polls the blueprint deployments started through this provider
+     */
+    public synchronized @Nonnull
+    DeploymentTracker getDeploymentTracker() {
+        if (deploymentTracker == null) {
+            deploymentTracker = new DeploymentTracker(this);
+        }
+        return deploymentTracker;
+    }
+
+    /**
+     * Reads an integer tuning value from the custom properties of the current context.
+     * 
+     * @param name
+     *            the custom property name
+     * @param defaultValue
+     *            the value to use when the property is missing or invalid
+     * @return the configured value or the default
+     */
+    public int getIntProperty(@Nonnull String name, int defaultValue) {
+        return APIClientConfig.parse(name, getProperty(name), defaultValue);
+    }
+
+    /**
+     * Reads a boolean tuning value from the custom properties of the current context.
+     * 
+     * @param name
+     *            the custom property name
+     * @param defaultValue
+     *            the value to use when the property is missing
+     * @return the configured value or the default
+     */
+    public boolean getBooleanProperty(@Nonnull String name, boolean defaultValue) {
+        return APIClientConfig.parse(getProperty(name), defaultValue);
+    }
+
+    private @Nullable
+    String getProperty(@Nonnull String name) {
+        ProviderContext ctx = getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+
+        return (p == null ? null : p.getProperty(name));
+    }
+
     @Override
     public @Nonnull
     String getCloudName() {
@@ -118,7 +227,7 @@ public class Tier3 extends AbstractCloud {
     }
 
     public Tier3ComputeTranslations getComputeTranslations() {
-        return new Tier3ComputeTranslations();
+        return computeTranslations;
     }
 
     @Override
@@ -127,7 +236,7 @@ public class Tier3 extends AbstractCloud {
     }
 
     public Tier3NetworkTranslations getNetworkTranslations() {
-        return new Tier3NetworkTranslations();
+        return networkTranslations;
     }
 
     @Override
@@ -168,53 +277,20 @@ public class Tier3 extends AbstractCloud {
         }
     }
 
+    /**
+     * @return the session cookie authenticating API calls for the current context, logging on if needed
+     * @throws CloudException
+     *             the logon was rejected
+     * @throws InternalException
+     *             the context has no usable credentials
+     */
     @Nonnull
     public String logon() throws CloudException, InternalException {
         if (logger.isTraceEnabled()) {
             logger.trace("ENTER - " + Tier3.class.getName() + ".logon()");
         }
-        String sessionId = null;
         try {
-            byte[][] keys = (byte[][]) getContext().getConfigurationValue("apiAccessKey");
-            String apiKey = new String(keys[0], "utf-8");
-            String apiPass = new String(keys[1], "utf-8");
-
-            Cache<String> cacheComp = Cache.getInstance(this, "sessionComparables", String.class,
-                    CacheLevel.CLOUD_ACCOUNT);
-            Iterable<String> sessionComparables = cacheComp.get(this.getContext());
-
-            Boolean refreshSession = false;
-            if (sessionComparables == null
-                    || !sessionComparables.iterator().next().equals(getContext().getAccountNumber() + apiKey + apiPass)) {
-                cacheComp.put(getContext(), Arrays.asList(getContext().getAccountNumber() + apiKey + apiPass));
-                refreshSession = true;
-            }
-
-            Cache<String> cache = Cache.getInstance(this, "sessionIds", String.class, CacheLevel.CLOUD_ACCOUNT,
-                    new TimePeriod<Hour>(4, TimePeriod.HOUR));
-            Iterable<String> sessionIds = cache.get(this.getContext());
-            if (sessionIds == null || refreshSession) {
-                JSONObject json = new JSONObject();
-                json.put("APIKey", apiKey);
-                json.put("Password", apiPass);
-                APIResponse response = new APIHandler(this).post("Auth/Logon/", json.toString());
-                if (response != null && response.getJSON() != null && response.getJSON().has("Session")) {
-                    sessionId = response.getJSON().getString("Session");
-                } else {
-                    throw new InternalException("Error obtaining session with supplied credentials");
-                }
-                cache.put(getContext(), Arrays.asList(sessionId));
-            } else {
-                sessionId = sessionIds.iterator().next();
-            }
-            return sessionId;
-
-        } catch (JSONException e) {
-            throw new CloudException(e);
-
-        } catch (UnsupportedEncodingException e) {
-            throw new CloudException(e);
-
+            return sessionManager.getSession();
         } finally {
             if (logger.isTraceEnabled()) {
                 logger.trace("EXIT - " + Tier3.class.getName() + ".logon()");
@@ -1,6 +1,6 @@
 package org.dasein.cloud.tier3.compute;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -120,8 +120,8 @@ public class Tier3ComputeTranslations {
         try {
             VmState state = VmState.PENDING;
             String vmId = null;
-            if (ob.has("ID")) {
-                vmId = ob.getString("ID");
+            if (ob.has("Name")) {
+                vmId = ob.getString("Name");
             }
             state = toVmState(ob);
             if (vmId == null) {
@@ -134,41 +134,37 @@ public class Tier3ComputeTranslations {
     }
 
     /**
-     * Preferrably, this list would come from an API but none exists yet. Build
-     * a list of supported operating systems along with their max settings for
-     * cpu and memory.
+     * Preferrably, this list would come from an API but none exists yet. Returns
+     * the supported operating systems along with their max settings for cpu and
+     * memory, as listed in the {@link Tier3OSRegistry}.
      * 
      * @param architecture
-     * @return
+     * @return an unmodifiable list of operating systems
      */
-    public ArrayList<Tier3OS> getOperatingSystems(Architecture architecture) {
-        ArrayList<Tier3OS> osList = new ArrayList<Tier3OS>();
-        if (architecture == null || architecture == Architecture.I32) {
-            osList.add(new Tier3OS(32, "CentOS 5 | 32-Bit", 8, 128));
-            osList.add(new Tier3OS(34, "CentOS 6 | 32-Bit", 16, 128));
-            osList.add(new Tier3OS(29, "Ubuntu 10 | 32-Bit", 16, 128));
-            osList.add(new Tier3OS(2, "Windows 2003 32-bit", 4, 32));
-            osList.add(new Tier3OS(15, "Windows 2003 R2 Enterprise | 32-bit", 8, 128));
-            osList.add(new Tier3OS(15, "Windows 2003 R2 Standard | 32-bit", 4, 128));
+    public List<Tier3OS> getOperatingSystems(Architecture architecture) throws InternalException {
+        return Tier3OSRegistry.getInstance().list(architecture);
+    }
+
+    /**
+     * Given an operating system id, return the operating system.
+     * 
+     * @param os
+     *            the numeric id as returned by the API
+     * @return the operating system or null if the id is unknown
+     */
+    public @Nullable
+    Tier3OS toOperatingSystem(@Nullable Object os) throws InternalException {
+        if (os == null) {
+            return null;
         }
-        if (architecture == null || architecture == Architecture.I64) {
-            osList.add(new Tier3OS(33, "CentOS 5 | 64-Bit", 16, 128));
-            osList.add(new Tier3OS(35, "CentOS 6 | 64-Bit", 16, 128));
-            osList.add(new Tier3OS(36, "Debian 6 | 64-Bit", 16, 128));
-            osList.add(new Tier3OS(37, "Debian 7 | 64-Bit", 16, 128));
-            osList.add(new Tier3OS(25, "RedHat Enterprise Linux 5 | 64-bit", 16, 28));
-            osList.add(new Tier3OS(30, "Ubuntu 10 | 64-Bit", 16, 128));
-            osList.add(new Tier3OS(31, "Ubuntu 12 | 64-Bit", 16, 128));
-            osList.add(new Tier3OS(15, "Windows 2003 R2 Enterprise | 64-bit", 8, 128));
-            osList.add(new Tier3OS(15, "Windows 2003 R2 Standard | 64-bit", 4, 32));
-            osList.add(new Tier3OS(26, "Windows 2008 Datacenter 64-bit", 4, 4));
-            osList.add(new Tier3OS(18, "Windows 2008 Enterprise | 64-bit", 8, 128));
-            osList.add(new Tier3OS(18, "Windows 2008 Standard | 64-bit", 4, 32));
-            osList.add(new Tier3OS(27, "Windows 2012 Datacenter Edition | 64-bit", 16, 128));
-            osList.add(new Tier3OS(28, "Windows 2012 R2 Datacenter Edition | 64-Bit", 16, 128));
+        if (os instanceof Number) {
+            return Tier3OSRegistry.getInstance().getById(((Number) os).intValue());
+        }
+        try {
+            return Tier3OSRegistry.getInstance().getById(Integer.parseInt(os.toString().trim()));
+        } catch (NumberFormatException e) {
+            return null;
         }
-
-        return osList;
     }
 
     /**
@@ -177,15 +173,9 @@ public class Tier3ComputeTranslations {
      * @param os
      * @return
      */
-    public String translateOS(Object os) {
-        Integer osId = Integer.parseInt(os.toString());
-        if (osId != null) {
-            for (Tier3OS o : getOperatingSystems(null)) {
-                if (osId == o.id) {
-                    return o.name;
-                }
-            }
-        }
-        return null;
+    public String translateOS(Object os) throws InternalException {
+        Tier3OS o = toOperatingSystem(os);
+
+        return (o == null ? null : o.name);
     }
 }
@@ -1,15 +1,37 @@
 package org.dasein.cloud.tier3.compute;
 
-public class Tier3OS {
-    public int id;
-    public String name;
-    public int maxCpu;
-    public int maxMemory;
+import javax.annotation.Nonnull;
 
-    public Tier3OS(int id, String name, int maxCpu, int maxMemory) {
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+
+/**
+ * An operating system offered by CenturyLink along with the largest CPU count and memory size (in GB)
+ * it can be provisioned with. Instances are immutable and shared through {@link Tier3OSRegistry}.
+ */
+public final class Tier3OS {
+    public final int id;
+    public final String name;
+    public final int maxCpu;
+    public final int maxMemory;
+    public final Architecture architecture;
+    public final Platform platform;
+
+    public Tier3OS(int id, @Nonnull String name, int maxCpu, int maxMemory) {
+        this(id, name, maxCpu, maxMemory, new Tier3ComputeTranslations().toArchitecture(name));
+    }
+
+    public Tier3OS(int id, @Nonnull String name, int maxCpu, int maxMemory, @Nonnull Architecture architecture) {
         this.id = id;
         this.name = name;
         this.maxCpu = maxCpu;
         this.maxMemory = maxMemory;
+        this.architecture = architecture;
+        this.platform = Platform.guess(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
     }
 }
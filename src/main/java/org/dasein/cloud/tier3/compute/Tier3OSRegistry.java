@@ -0,0 +1,196 @@
+package org.dasein.cloud.tier3.compute;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.tier3.Tier3;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Immutable table of the operating systems CenturyLink offers. There is no API listing them, so the
+ * table is read from the <code>operating-systems.json</code> resource next to this class, or from the
+ * classpath resource named by the <code>dasein.tier3.operatingSystems</code> system property. It is
+ * loaded on first use and shared by every provider. A table that is missing or invalid is a packaging
+ * error: the failure is logged once and kept, and every use of the registry fails with an
+ * {@link InternalException} carrying its cause rather than letting the driver run without operating
+ * systems.
+ * <p>
+ * Some operating systems share an ID; looking one up by ID returns the first listed.
+ * </p>
+ */
+public final class Tier3OSRegistry {
+    static private final Logger logger = Tier3.getLogger(Tier3OSRegistry.class);
+
+    static public final String RESOURCE_PROPERTY = "dasein.tier3.operatingSystems";
+    static private final String DEFAULT_RESOURCE = "operating-systems.json";
+
+    static private final Object loadLock = new Object();
+    static private volatile Tier3OSRegistry instance;
+    static private InternalException failure;
+
+    /**
+     * @return the shared registry
+     * @throws InternalException
+     *             the operating system table could not be loaded, now or by an earlier call
+     */
+    static public @Nonnull
+    Tier3OSRegistry getInstance() throws InternalException {
+        Tier3OSRegistry registry = instance;
+
+        if (registry != null) {
+            return registry;
+        }
+        synchronized (loadLock) {
+            if (instance == null && failure == null) {
+                try {
+                    instance = loadDefault();
+                } catch (InternalException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw new InternalException(failure.getMessage(), failure.getCause());
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Reads a registry from a JSON document of the form
+     * <code>{"OperatingSystems":[{"ID":..,"Name":..,"Architecture":"I64","MaxCpu":..,"MaxMemoryGB":..}]}</code>.
+     *
+     * @param input
+     *            the document to read, closed on return
+     * @return the registry
+     * @throws InternalException
+     *             the document could not be read or is invalid
+     */
+    static public @Nonnull
+    Tier3OSRegistry load(@Nonnull InputStream input) throws InternalException {
+        try {
+            Reader reader = new InputStreamReader(input, "utf-8");
+            JSONObject json = new JSONObject(new JSONTokener(reader));
+            JSONArray list = json.getJSONArray("OperatingSystems");
+            ArrayList<Tier3OS> systems = new ArrayList<Tier3OS>();
+
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject os = list.getJSONObject(i);
+                String name = os.getString("Name");
+                Architecture architecture = (os.has("Architecture") ? Architecture.valueOf(os.getString("Architecture"))
+                        : new Tier3ComputeTranslations().toArchitecture(name));
+
+                systems.add(new Tier3OS(os.getInt("ID"), name, os.getInt("MaxCpu"), os.getInt("MaxMemoryGB"),
+                        architecture));
+            }
+            return new Tier3OSRegistry(systems);
+        } catch (JSONException e) {
+            throw new InternalException(e);
+        } catch (IllegalArgumentException e) {
+            throw new InternalException(e);
+        } catch (IOException e) {
+            throw new InternalException(e);
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    static private @Nonnull
+    Tier3OSRegistry loadDefault() throws InternalException {
+        String resource = System.getProperty(RESOURCE_PROPERTY);
+        InputStream input;
+
+        if (resource != null) {
+            input = Tier3OSRegistry.class.getClassLoader().getResourceAsStream(resource);
+        } else {
+            resource = DEFAULT_RESOURCE;
+            input = Tier3OSRegistry.class.getResourceAsStream(resource);
+        }
+        if (input == null) {
+            logger.error("Unable to find the operating system table " + resource);
+            throw new InternalException("Unable to find the operating system table " + resource);
+        }
+        try {
+            return load(input);
+        } catch (InternalException e) {
+            logger.error("Unable to read the operating system table " + resource + ": " + e.getMessage());
+            throw new InternalException("Unable to read the operating system table " + resource, e);
+        }
+    }
+
+    private final List<Tier3OS> all;
+    private final Map<Architecture, List<Tier3OS>> byArchitecture = new HashMap<Architecture, List<Tier3OS>>();
+    private final Map<String, Tier3OS> byName = new HashMap<String, Tier3OS>();
+    private final Tier3OS[] byId;
+
+    private Tier3OSRegistry(@Nonnull List<Tier3OS> systems) {
+        int maxId = -1;
+
+        all = Collections.unmodifiableList(new ArrayList<Tier3OS>(systems));
+        for (Tier3OS os : all) {
+            maxId = Math.max(maxId, os.id);
+        }
+        byId = new Tier3OS[maxId + 1];
+        for (Architecture architecture : Architecture.values()) {
+            ArrayList<Tier3OS> partition = new ArrayList<Tier3OS>();
+
+            for (Tier3OS os : all) {
+                if (architecture.equals(os.architecture)) {
+                    partition.add(os);
+                }
+            }
+            byArchitecture.put(architecture, Collections.unmodifiableList(partition));
+        }
+        for (Tier3OS os : all) {
+            if (os.id >= 0 && byId[os.id] == null) {
+                byId[os.id] = os;
+            }
+            if (!byName.containsKey(os.name)) {
+                byName.put(os.name, os);
+            }
+        }
+    }
+
+    /**
+     * @param architecture
+     *            the architecture to filter on, or <code>null</code> for all
+     * @return the operating systems for the architecture in table order
+     */
+    public @Nonnull
+    List<Tier3OS> list(@Nullable Architecture architecture) {
+        if (architecture == null) {
+            return all;
+        }
+        List<Tier3OS> partition = byArchitecture.get(architecture);
+
+        return (partition == null ? Collections.<Tier3OS> emptyList() : partition);
+    }
+
+    public @Nullable
+    Tier3OS getById(int id) {
+        return (id >= 0 && id < byId.length ? byId[id] : null);
+    }
+
+    public @Nullable
+    Tier3OS getByName(@Nullable String name) {
+        return (name == null ? null : byName.get(name));
+    }
+}
@@ -0,0 +1,259 @@
+package org.dasein.cloud.tier3.compute.image;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.tier3.APIHandler;
+import org.dasein.cloud.tier3.APIResponse;
+import org.dasein.cloud.tier3.AccountCache;
+import org.dasein.cloud.tier3.Tier3;
+import org.dasein.cloud.util.APITrace;
+import org.dasein.util.CalendarWrapper;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The server templates of an account as returned by <code>Server/GetServerTemplates</code>, indexed
+ * by template ID and by name so that resolving the template of a launch is a map lookup. One catalog
+ * is shared by every provider connected to the same account.
+ * <p>
+ * Once the catalog is older than its TTL, the next lookup still answers from it but starts a reload
+ * on the provider executor. A catalog more than four TTLs old is reloaded before answering, as is one
+ * that misses a lookup and is more than a minute old, so that new templates show up without waiting
+ * for the TTL. The TTL is set in ms with the <code>templateCatalogTtl</code> custom property, ten
+ * minutes by default.
+ * </p>
+ */
+class TemplateCatalog {
+    static private final Logger logger = Tier3.getLogger(TemplateCatalog.class);
+
+    static private final long MISS_RELOAD_AGE = CalendarWrapper.MINUTE;
+    static private final int EXPIRY_FACTOR = 4;
+
+    static private final String KEY = "templates";
+
+    static private final AccountCache<Templates> catalogs = new AccountCache<Templates>("templateCatalog", 1);
+
+    private TemplateCatalog() {
+    }
+
+    /**
+     * @return the template with the given ID or <code>null</code> if there is none
+     */
+    static @Nullable
+    JSONObject getById(@Nonnull Tier3 provider, @Nonnull String templateId) throws CloudException,
+            InternalException {
+        Templates templates = get(provider);
+        JSONObject template = templates.byId.get(templateId);
+
+        if (template == null && templates.getAge() > MISS_RELOAD_AGE) {
+            template = reload(provider, templates).byId.get(templateId);
+        }
+        return template;
+    }
+
+    /**
+     * @return the template with the given name or <code>null</code> if there is none
+     */
+    static @Nullable
+    JSONObject getByName(@Nonnull Tier3 provider, @Nonnull String name) throws CloudException, InternalException {
+        Templates templates = get(provider);
+        JSONObject template = templates.byName.get(name);
+
+        if (template == null && templates.getAge() > MISS_RELOAD_AGE) {
+            template = reload(provider, templates).byName.get(name);
+        }
+        return template;
+    }
+
+    /**
+     * @return every template in the order CenturyLink lists them
+     */
+    static @Nonnull
+    List<JSONObject> list(@Nonnull Tier3 provider) throws CloudException, InternalException {
+        return get(provider).all;
+    }
+
+    /**
+     * Lists the templates whose name, description or tag values contain a keyword, ignoring case.
+     * 
+     * @param keyword
+     *            the keyword to look for, or <code>null</code> for every template
+     * @return the matching templates in catalog order
+     */
+    static @Nonnull
+    List<JSONObject> search(@Nonnull Tier3 provider, @Nullable String keyword) throws CloudException,
+            InternalException {
+        Templates templates = get(provider);
+
+        if (keyword == null) {
+            return templates.all;
+        }
+        String match = keyword.toLowerCase();
+        ArrayList<JSONObject> found = new ArrayList<JSONObject>();
+
+        for (int i = 0; i < templates.all.size(); i++) {
+            if (templates.keywords.get(i).contains(match)) {
+                found.add(templates.all.get(i));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Drops a template that has just been deleted.
+     * 
+     * @param templateId
+     *            the ID of the deleted template
+     */
+    static void remove(@Nonnull Tier3 provider, @Nonnull String templateId) throws CloudException {
+        Templates templates = catalogs.get(provider, KEY);
+
+        if (templates != null && templates.byId.containsKey(templateId)) {
+            ArrayList<JSONObject> remaining = new ArrayList<JSONObject>(templates.all);
+
+            remaining.remove(templates.byId.get(templateId));
+            catalogs.put(provider, KEY, new Templates(remaining, templates.loadedAt));
+        }
+    }
+
+    static private @Nonnull
+    Templates get(@Nonnull final Tier3 provider) throws CloudException, InternalException {
+        Templates templates = catalogs.get(provider, KEY);
+        long ttl = Math.max(0, provider.getIntProperty(Tier3Image.TEMPLATE_CATALOG_TTL, (int) (CalendarWrapper.MINUTE * 10)));
+
+        if (templates == null || templates.getAge() > ttl * EXPIRY_FACTOR) {
+            return reload(provider, templates);
+        }
+        if (templates.getAge() > ttl && templates.refreshing.compareAndSet(false, true)) {
+            final Templates stale = templates;
+
+            try {
+                provider.getExecutor().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            reload(provider, stale);
+                        } catch (Throwable t) {
+                            logger.warn("Unable to refresh the template catalog: " + t.getMessage());
+                        } finally {
+                            stale.refreshing.set(false);
+                        }
+                        return null;
+                    }
+                });
+            } catch (InternalException e) {
+                stale.refreshing.set(false);
+                logger.warn("Unable to schedule a template catalog refresh: " + e.getMessage());
+            } catch (RuntimeException e) {
+                stale.refreshing.set(false);
+                throw e;
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Loads the templates unless another caller replaced the given snapshot while this one waited.
+     */
+    static private @Nonnull
+    Templates reload(@Nonnull final Tier3 provider, @Nullable Templates seen) throws CloudException,
+            InternalException {
+        return catalogs.load(provider, KEY, seen, new Callable<Templates>() {
+            @Override
+            public Templates call() throws CloudException, InternalException {
+                return load(provider);
+            }
+        });
+    }
+
+    static private @Nonnull
+    Templates load(@Nonnull Tier3 provider) throws CloudException, InternalException {
+        APITrace.begin(provider, "loadTemplateCatalog");
+        try {
+            APIHandler method = new APIHandler(provider);
+            APIResponse response = method.post("Server/GetServerTemplates/JSON", "");
+            response.validate();
+
+            ArrayList<JSONObject> list = new ArrayList<JSONObject>();
+            JSONObject json = response.getJSON();
+
+            if (json.has("Templates")) {
+                JSONArray templates = json.getJSONArray("Templates");
+
+                for (int i = 0; i < templates.length(); i++) {
+                    list.add(templates.getJSONObject(i));
+                }
+            }
+            return new Templates(list, System.currentTimeMillis());
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    static private class Templates {
+        /**
+         * The template fields {@link Tier3Image} exposes as name, description or tags, which keyword
+         * searches look into.
+         */
+        static private final String[] SEARCHED_FIELDS = { "Name", "Description", "Cpu", "MemoryGB",
+                "TotalDiskSpaceGB", "OperatingSystem", "ResourceID" };
+
+        final List<JSONObject> all;
+        final List<String> keywords = new ArrayList<String>();
+        final Map<String, JSONObject> byId = new HashMap<String, JSONObject>();
+        final Map<String, JSONObject> byName = new HashMap<String, JSONObject>();
+        final long loadedAt;
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Templates(@Nonnull List<JSONObject> templates, long loadedAt) {
+            this.all = Collections.unmodifiableList(templates);
+            this.loadedAt = loadedAt;
+            for (JSONObject template : templates) {
+                String id = template.optString("ID", null);
+                String name = template.optString("Name", null);
+
+                if (id != null && !byId.containsKey(id)) {
+                    byId.put(id, template);
+                }
+                if (name != null && !byName.containsKey(name)) {
+                    byName.put(name, template);
+                }
+                keywords.add(toKeywords(template));
+            }
+        }
+
+        /**
+         * @return the searched fields of a template, lower case and separated by line feeds
+         */
+        static private @Nonnull
+        String toKeywords(@Nonnull JSONObject template) {
+            StringBuilder str = new StringBuilder();
+
+            for (String field : SEARCHED_FIELDS) {
+                if (template.has(field) && !template.isNull(field)) {
+                    str.append(template.optString(field).toLowerCase()).append('\n');
+                }
+            }
+            return str.toString();
+        }
+
+        long getAge() {
+            return System.currentTimeMillis() - loadedAt;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package org.dasein.cloud.tier3.compute.image;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Locale;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.AsynchronousTask;
@@ -27,6 +31,8 @@ import org.dasein.cloud.compute.VmState;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.tier3.APIHandler;
 import org.dasein.cloud.tier3.APIResponse;
+import org.dasein.cloud.tier3.APIStream;
+import org.dasein.cloud.tier3.APIStreamIterable;
 import org.dasein.cloud.tier3.Tier3;
 import org.dasein.cloud.util.APITrace;
 import org.json.JSONException;
@@ -34,6 +40,13 @@ import org.json.JSONObject;
 
 public class Tier3Image implements MachineImageSupport {
     static private final Logger logger = Tier3.getLogger(Tier3Image.class);
+
+    /**
+     * Custom property setting how long, in ms, the template catalog behind {@link #getImage(String)}
+     * is used before it is refreshed.
+     */
+    static public final String TEMPLATE_CATALOG_TTL = "templateCatalogTtl";
+
     private Tier3 provider;
 
     public Tier3Image(Tier3 provider) {
@@ -108,12 +121,12 @@ public class Tier3Image implements MachineImageSupport {
         if (providerImageId == null) {
             return null;
         }
-        for (MachineImage image : listImages((ImageFilterOptions) null)) {
-            if (providerImageId.equals(image.getProviderMachineImageId())) {
-                return image;
-            }
+        APITrace.begin(provider, "getImage");
+        try {
+            return toMachineImage(TemplateCatalog.getById(provider, providerImageId));
+        } finally {
+            APITrace.end();
         }
-        return null;
     }
 
     @Override
@@ -210,32 +223,24 @@ public class Tier3Image implements MachineImageSupport {
     }
 
     @Override
-    public Iterable<MachineImage> listImages(ImageFilterOptions options) throws CloudException, InternalException {
+    public Iterable<MachineImage> listImages(final ImageFilterOptions options) throws CloudException, InternalException {
         APITrace.begin(provider, "listImages");
         try {
-            APIHandler method = new APIHandler(provider);
-            APIResponse response = method.post("Server/GetServerTemplates/JSON", "");
-            response.validate();
-
-            ArrayList<MachineImage> images = new ArrayList<MachineImage>();
+            return new APIStreamIterable<MachineImage>() {
+                @Override
+                protected APIStream open() throws CloudException, InternalException {
+                    return new APIHandler(provider).postStream("Server/GetServerTemplates/JSON", "", "Templates");
+                }
 
-            JSONObject json = response.getJSON();
-            if (json.has("Templates")) {
-                for (int i = 0; i < json.getJSONArray("Templates").length(); i++) {
-                    MachineImage image = toMachineImage(json.getJSONArray("Templates").getJSONObject(i));
-                    if (options == null) {
-                        images.add(image);
-                    } else {
-                        if (image != null && options.matches(image)) {
-                            images.add(image);
-                        }
+                @Override
+                protected MachineImage toResource(JSONObject json) throws CloudException, InternalException {
+                    MachineImage image = toMachineImage(json);
+                    if (options == null || options.matches(image)) {
+                        return image;
                     }
+                    return null;
                 }
-            }
-
-            return images;
-        } catch (JSONException e) {
-            throw new CloudException(e);
+            }.start();
         } finally {
             APITrace.end();
         }
@@ -337,6 +342,7 @@ public class Tier3Image implements MachineImageSupport {
             post.put("Name", image.getName());
             APIResponse response = method.post("Server/DeleteTemplate/JSON", post.toString());
             response.validate();
+            TemplateCatalog.remove(provider, providerImageId);
 
         } catch (JSONException e) {
             throw new CloudException(e);
@@ -365,60 +371,48 @@ public class Tier3Image implements MachineImageSupport {
         throw new OperationNotSupportedException();
     }
 
+    /**
+     * Searches the template catalog in a single pass. Every criterion given must match: the keyword
+     * is looked for, ignoring case, in the name, description and tag values of the template, and the
+     * image must be of one of the classes given, if any.
+     */
     @Override
     public Iterable<MachineImage> searchImages(String accountNumber, String keyword, Platform platform,
             Architecture architecture, ImageClass... imageClasses) throws CloudException, InternalException {
-        ArrayList<MachineImage> images = new ArrayList<MachineImage>();
-        for (MachineImage image : listImages((ImageFilterOptions) null)) {
-            for (int i = 0; i < imageClasses.length; i++) {
-                // test keyword
-                if (keyword != null) {
-                    if (image.getName() != null) {
-                        if (image.getName().contains(keyword)) {
-                            if (!images.contains(image)) {
-                                images.add(image);
-                            }
-                        }
-                    }
-                    if (image.getDescription() != null) {
-                        if (image.getDescription().contains(keyword)) {
-                            if (!images.contains(image)) {
-                                images.add(image);
-                            }
-                        }
-                    }
-                    if (image.getTags() != null) {
-                        for (String value : image.getTags().values()) {
-                            if (value != null && value.contains(keyword)) {
-                                images.add(image);
-                            }
-                        }
-                    }
-                }
+        APITrace.begin(provider, "searchImages");
+        try {
+            Set<ImageClass> classes = null;
 
-                // test platform
-                if (platform != null && image.getPlatform().compareTo(platform) == 0) {
-                    if (!images.contains(image)) {
-                        images.add(image);
-                    }
+            if (imageClasses != null && imageClasses.length > 0) {
+                classes = new HashSet<ImageClass>(Arrays.asList(imageClasses));
+                if (classes.contains(null)) {
+                    classes = null;
                 }
+            }
+            ArrayList<MachineImage> images = new ArrayList<MachineImage>();
+            Set<JSONObject> seen = Collections.newSetFromMap(new IdentityHashMap<JSONObject, Boolean>());
 
-                // test architecture
-                if (architecture != null && image.getArchitecture().compareTo(architecture) == 0) {
-                    if (!images.contains(image)) {
-                        images.add(image);
-                    }
+            for (JSONObject template : TemplateCatalog.search(provider, keyword)) {
+                if (!seen.add(template)) {
+                    continue;
                 }
+                MachineImage image = toMachineImage(template);
 
-                // test image class
-                if (imageClasses[i] == image.getImageClass()) {
-                    if (!images.contains(image)) {
-                        images.add(image);
-                    }
+                if (platform != null && !platform.equals(image.getPlatform())) {
+                    continue;
+                }
+                if (architecture != null && !architecture.equals(image.getArchitecture())) {
+                    continue;
                 }
+                if (classes != null && !classes.contains(image.getImageClass())) {
+                    continue;
+                }
+                images.add(image);
             }
+            return images;
+        } finally {
+            APITrace.end();
         }
-        return images;
     }
 
     @Override
@@ -581,4 +575,4 @@ public class Tier3Image implements MachineImageSupport {
             }
         };
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,11 @@
 package org.dasein.cloud.tier3.compute.snapshot;
 
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -20,7 +23,11 @@ import org.dasein.cloud.compute.SnapshotState;
 import org.dasein.cloud.compute.SnapshotSupport;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.tier3.APIHandler;
+import org.dasein.cloud.tier3.AccountCache;
 import org.dasein.cloud.tier3.APIResponse;
+import org.dasein.cloud.tier3.APIStream;
+import org.dasein.cloud.tier3.APIStreamIterable;
+import org.dasein.cloud.tier3.Deployment;
 import org.dasein.cloud.tier3.Tier3;
 import org.dasein.cloud.tier3.compute.image.Tier3Image;
 import org.dasein.cloud.util.APITrace;
@@ -34,6 +41,17 @@ public class Tier3Snapshot implements SnapshotSupport {
 	private Tier3 provider;
 	static final String SNAPSHOT_ID_DELIMITER = ".";
 
+	/**
+	 * How long the snapshots fetched for a server are reused by {@link #getSnapshot(String)}.
+	 */
+	static private final long INDEX_TTL = CalendarWrapper.MINUTE;
+
+	/**
+	 * Snapshots of recently looked up servers, by server name.
+	 */
+	static private final AccountCache<ServerSnapshots> index = new AccountCache<ServerSnapshots>(
+			"serverSnapshots", 256);
+
 	public Tier3Snapshot(Tier3 provider) {
 		this.provider = provider;
 	}
@@ -67,27 +85,14 @@ public class Tier3Snapshot implements SnapshotSupport {
 			post.put("Name", options.getVolumeId());
 			APIResponse response = method.post("Server/SnapshotServer/JSON", post.toString());
 			response.validate();
+			index.remove(provider, options.getVolumeId());
 
 			// TODO watch the deployment status response to see what we can
 			// return, looking for the snapshot name
 			int requestId = response.getJSON().getInt("RequestID");
-			String name = null;
-			long timeout = System.currentTimeMillis() + CalendarWrapper.MINUTE;
-			while (timeout > System.currentTimeMillis()) {
-
-				JSONObject deployStatus = provider.getDeploymentStatus(requestId);
-
-				JSONArray servers = deployStatus.getJSONArray("Servers");
-				if (deployStatus.has("Servers") && !deployStatus.isNull("Servers") && servers.length() > 0) {
-					name = servers.get(0).toString();
-					break;
-				} else {
-					try {
-						Thread.sleep(10000L);
-					} catch (InterruptedException ignore) {
-					}
-				}
-			}
+			Deployment deployment = provider.getDeploymentTracker().track(requestId);
+			List<String> servers = deployment.awaitServers(CalendarWrapper.MINUTE, TimeUnit.MILLISECONDS);
+			String name = (servers.isEmpty() ? null : servers.get(0));
 
 			// since the name of a snapshot doesn't contain the server name,
 			// might need to concatenate the return
@@ -121,23 +126,21 @@ public class Tier3Snapshot implements SnapshotSupport {
 			String serverName = extractServerNameFromSnapshotId(snapshotId);
 			snapshotId = removeServerNameFromSnapshotId(snapshotId, serverName);
 
-			APIHandler method = new APIHandler(provider);
-			JSONObject post = new JSONObject();
-			post.put("Name", serverName);
-			APIResponse response = method.post("Server/GetSnapshots/JSON", "");
-			response.validate();
+			ServerSnapshots snapshots = index.get(provider, serverName, INDEX_TTL);
 
-			JSONObject json = response.getJSON();
-			if (json.has("Snapshots")) {
-				for (int i = 0; i < json.getJSONArray("Snapshots").length(); i++) {
-					JSONObject snapshot = json.getJSONArray("Snapshots").getJSONObject(i);
-					if (snapshot.getString("Name").equals(snapshotId)) {
-						return toSnapshot(serverName, snapshot);
-					}
-				}
+			if (snapshots == null) {
+				APIHandler method = new APIHandler(provider);
+				JSONObject post = new JSONObject();
+				post.put("Name", serverName);
+				APIResponse response = method.post("Server/GetSnapshots/JSON", post.toString());
+				response.validate();
+
+				snapshots = new ServerSnapshots(response.getJSON());
+				index.put(provider, serverName, snapshots);
 			}
+			JSONObject snapshot = snapshots.byName.get(snapshotId);
 
-			return null;
+			return (snapshot == null ? null : toSnapshot(serverName, snapshot));
 
 		} catch (JSONException e) {
 			throw new CloudException(e);
@@ -146,6 +149,25 @@ public class Tier3Snapshot implements SnapshotSupport {
 		}
 	}
 
+	/**
+	 * The snapshots of one server as returned by <code>Server/GetSnapshots</code>, by snapshot name.
+	 */
+	static private class ServerSnapshots {
+		final Map<String, JSONObject> byName = new HashMap<String, JSONObject>();
+
+		ServerSnapshots(JSONObject json) throws JSONException {
+			if (json.has("Snapshots")) {
+				JSONArray list = json.getJSONArray("Snapshots");
+
+				for (int i = 0; i < list.length(); i++) {
+					JSONObject snapshot = list.getJSONObject(i);
+
+					byName.put(snapshot.getString("Name"), snapshot);
+				}
+			}
+		}
+	}
+
 	private String removeServerNameFromSnapshotId(String snapshotId, String serverName) {
 		snapshotId = snapshotId.replace(serverName + SNAPSHOT_ID_DELIMITER, "");
 		return snapshotId;
@@ -236,25 +258,24 @@ public class Tier3Snapshot implements SnapshotSupport {
 			if (options == null || options.getTags() == null || !options.getTags().containsKey("Server")) {
 				throw new CloudException("Tag with name of 'Server' and value of server name is required");
 			}
-			APIHandler method = new APIHandler(provider);
-			JSONObject post = new JSONObject();
+			final String serverName = options.getTags().get("Server");
+			final JSONObject post = new JSONObject();
 			if (options.getAccountNumber() != null) {
 				post.put("AccountAlias", options.getAccountNumber());
 			}
-			post.put("Name", options.getTags().get("Server"));
-			APIResponse response = method.post("Server/GetSnapshots/JSON", post.toString());
-			response.validate();
-
-			ArrayList<Snapshot> snapshots = new ArrayList<Snapshot>();
+			post.put("Name", serverName);
 
-			JSONObject json = response.getJSON();
-			if (json.has("Snapshots")) {
-				for (int i = 0; i < json.getJSONArray("Snapshots").length(); i++) {
-					snapshots.add(toSnapshot(options.getTags().get("Server"), json.getJSONArray("Snapshots").getJSONObject(i)));
+			return new APIStreamIterable<Snapshot>() {
+				@Override
+				protected APIStream open() throws CloudException, InternalException {
+					return new APIHandler(provider).postStream("Server/GetSnapshots/JSON", post.toString(), "Snapshots");
 				}
-			}
 
-			return snapshots;
+				@Override
+				protected Snapshot toResource(JSONObject json) throws CloudException, InternalException {
+					return toSnapshot(serverName, json);
+				}
+			}.start();
 
 		} catch (JSONException e) {
 			throw new CloudException(e);
@@ -279,8 +300,9 @@ public class Tier3Snapshot implements SnapshotSupport {
 			JSONObject post = new JSONObject();
 			post.put("Name", serverName);
 			post.put("SnapshotName", snapshotId);
-			APIResponse response = method.post("Server/DeleteSnapshot/JSON", "");
+			APIResponse response = method.post("Server/DeleteSnapshot/JSON", post.toString());
 			response.validate();
+			index.remove(provider, serverName);
 
 		} catch (JSONException e) {
 			throw new CloudException(e);
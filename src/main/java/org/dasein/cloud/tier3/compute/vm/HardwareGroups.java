@@ -0,0 +1,105 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.tier3.AccountCache;
+import org.dasein.cloud.tier3.Tier3;
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * The default hardware group of each data center, by account and data center. Hardware
+ * groups almost never change, so a group found through <code>Group/GetGroups</code> is reused for the
+ * <code>hardwareGroupTtl</code> custom property (ms, one hour by default). Past that, lookups still
+ * answer from the cache while one reload runs on the provider executor; past four TTLs the group is
+ * reloaded before answering. Loads of different data centers run independently; concurrent loads of
+ * the same data center share a single call.
+ */
+class HardwareGroups {
+    static private final Logger logger = Tier3.getLogger(HardwareGroups.class);
+
+    static private final int EXPIRY_FACTOR = 4;
+
+    static private final AccountCache<Entry> entries = new AccountCache<Entry>("defaultHardwareGroups", 64);
+
+    /**
+     * @return the ID of the default hardware group of the data center
+     */
+    static int getDefaultGroupId(@Nonnull Tier3 provider, @Nonnull final Tier3VM support,
+            @Nonnull final String dataCenterId) throws CloudException, InternalException {
+        long ttl = Math.max(0, provider.getIntProperty(Tier3VM.HARDWARE_GROUP_TTL, (int) CalendarWrapper.HOUR));
+        Entry entry = entries.get(provider, dataCenterId);
+
+        if (entry == null || entry.getAge() > ttl * EXPIRY_FACTOR) {
+            return reload(provider, support, dataCenterId, entry);
+        }
+        if (entry.getAge() > ttl && entry.refreshing.compareAndSet(false, true)) {
+            final Tier3 p = provider;
+            final Entry stale = entry;
+
+            try {
+                provider.getExecutor().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            reload(p, support, dataCenterId, stale);
+                        } catch (Throwable t) {
+                            logger.warn("Unable to refresh the hardware group of " + dataCenterId + ": "
+                                    + t.getMessage());
+                        } finally {
+                            stale.refreshing.set(false);
+                        }
+                        return null;
+                    }
+                });
+            } catch (InternalException e) {
+                entry.refreshing.set(false);
+                logger.warn("Unable to schedule a hardware group refresh: " + e.getMessage());
+            }
+        }
+        return entry.groupId;
+    }
+
+    /**
+     * Forgets the cached group of a data center, or of every data center of the account.
+     */
+    static void invalidate(@Nonnull Tier3 provider, String dataCenterId) throws CloudException {
+        if (dataCenterId != null) {
+            entries.remove(provider, dataCenterId);
+        } else {
+            entries.clear(provider);
+        }
+    }
+
+    /**
+     * Loads the group unless another caller replaced the given entry while this one waited.
+     */
+    static private int reload(@Nonnull Tier3 provider, @Nonnull final Tier3VM support,
+            @Nonnull final String dataCenterId, Entry seen) throws CloudException, InternalException {
+        return entries.load(provider, dataCenterId, seen, new Callable<Entry>() {
+            @Override
+            public Entry call() throws CloudException, InternalException {
+                return new Entry(support.loadDefaultHardwareGroupId(dataCenterId));
+            }
+        }).groupId;
+    }
+
+    static private class Entry {
+        final int groupId;
+        final long loadedAt = System.currentTimeMillis();
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Entry(int groupId) {
+            this.groupId = groupId;
+        }
+
+        long getAge() {
+            return System.currentTimeMillis() - loadedAt;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.tier3.APIHandler;
+import org.dasein.cloud.tier3.APIStream;
+import org.dasein.cloud.tier3.Tier3;
+import org.dasein.cloud.util.APITrace;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the server inventory of an account in sync across repeated listings. Each call to
+ * {@link #sync()} streams <code>Server/GetAllServers</code>, fingerprints every server from its raw
+ * JSON and only converts the servers that are new or whose fingerprint changed since the previous
+ * sync. The first sync reports every server as added.
+ * <p>
+ * A sync that fails leaves the previous snapshot in place, so the next one reports every change since
+ * the last successful sync. Instances are bound to the provider they were created from, which must
+ * stay open while they are used, and syncs on one instance run one at a time.
+ * </p>
+ */
+public class InventorySync {
+    private final Tier3 provider;
+    private final Tier3VM support;
+    private Map<String, Server> servers = new HashMap<String, Server>();
+    private VlanIndex vlans;
+
+    /**
+     * The raw servers read by one sync, one at a time.
+     */
+    interface Listing {
+        /**
+         * @return the next server or <code>null</code> if there are no more
+         */
+        @Nullable
+        JSONObject next() throws CloudException;
+    }
+
+    InventorySync(@Nonnull Tier3 provider, @Nonnull Tier3VM support) {
+        this.provider = provider;
+        this.support = support;
+    }
+
+    /**
+     * Lists the servers and compares them to the previous sync.
+     * 
+     * @return the servers added, changed and removed since the previous sync
+     * @throws CloudException
+     *             the listing failed
+     * @throws InternalException
+     *             the listing could not be made
+     */
+    public synchronized @Nonnull
+    Delta sync() throws CloudException, InternalException {
+        APITrace.begin(provider, "syncVirtualMachines");
+        try {
+            final APIStream stream = new APIHandler(provider).postStream("Server/GetAllServers/JSON", "", "Servers");
+
+            try {
+                stream.validate();
+                return apply(new Listing() {
+                    @Override
+                    public JSONObject next() throws CloudException {
+                        return stream.nextObject();
+                    }
+                });
+            } finally {
+                stream.close();
+            }
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Compares a complete listing to the previous snapshot and makes it the new snapshot.
+     */
+    synchronized @Nonnull
+    Delta apply(@Nonnull Listing listing) throws CloudException, InternalException {
+        try {
+            HashMap<String, Server> current = new HashMap<String, Server>();
+            ArrayList<VirtualMachine> added = new ArrayList<VirtualMachine>();
+            ArrayList<VirtualMachine> changed = new ArrayList<VirtualMachine>();
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            JSONObject json;
+
+            while ((json = listing.next()) != null) {
+                if (!json.has("Name") || json.isNull("Name")) {
+                    continue;
+                }
+                String name = json.getString("Name");
+                byte[] fingerprint = fingerprint(digest, json);
+                Server previous = servers.get(name);
+
+                if (previous != null && Arrays.equals(previous.fingerprint, fingerprint)) {
+                    current.put(name, previous);
+                    continue;
+                }
+                VirtualMachine vm = toVirtualMachine(json);
+
+                if (vm == null) {
+                    continue;
+                }
+                current.put(name, new Server(vm, fingerprint));
+                if (previous == null) {
+                    added.add(vm);
+                } else {
+                    changed.add(vm);
+                }
+            }
+
+            ArrayList<VirtualMachine> removed = new ArrayList<VirtualMachine>();
+
+            for (Map.Entry<String, Server> entry : servers.entrySet()) {
+                if (!current.containsKey(entry.getKey())) {
+                    removed.add(entry.getValue().vm);
+                }
+            }
+            servers = current;
+            return new Delta(added, changed, removed, current.size());
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new InternalException(e);
+        } finally {
+            vlans = null;
+        }
+    }
+
+    /**
+     * Converts a new or changed server, loading the VLAN index once per sync.
+     */
+    @Nullable
+    VirtualMachine toVirtualMachine(@Nonnull JSONObject json) throws CloudException, InternalException {
+        if (vlans == null) {
+            vlans = VlanIndex.load(provider);
+        }
+        return support.toVirtualMachine(json, vlans);
+    }
+
+    /**
+     * Forgets the previous snapshot so that the next sync reports every server as added.
+     */
+    public synchronized void reset() {
+        servers = new HashMap<String, Server>();
+    }
+
+    /**
+     * Digests a JSON value with its object keys in sorted order, so that the fingerprint does not
+     * depend on the order fields were parsed in.
+     */
+    static private @Nonnull
+    byte[] fingerprint(@Nonnull MessageDigest digest, @Nonnull JSONObject json) throws JSONException,
+            UnsupportedEncodingException {
+        digest.reset();
+        update(digest, json);
+        return digest.digest();
+    }
+
+    static private void update(@Nonnull MessageDigest digest, Object value) throws JSONException,
+            UnsupportedEncodingException {
+        if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            ArrayList<String> keys = new ArrayList<String>();
+
+            for (Iterator<?> it = json.keys(); it.hasNext();) {
+                keys.add(it.next().toString());
+            }
+            Collections.sort(keys);
+            digest.update((byte) '{');
+            for (String key : keys) {
+                digest.update(key.getBytes("utf-8"));
+                digest.update((byte) ':');
+                update(digest, json.get(key));
+                digest.update((byte) ',');
+            }
+            digest.update((byte) '}');
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+
+            digest.update((byte) '[');
+            for (int i = 0; i < array.length(); i++) {
+                update(digest, array.get(i));
+                digest.update((byte) ',');
+            }
+            digest.update((byte) ']');
+        } else {
+            digest.update(String.valueOf(value).getBytes("utf-8"));
+        }
+    }
+
+    static private class Server {
+        final VirtualMachine vm;
+        final byte[] fingerprint;
+
+        Server(@Nonnull VirtualMachine vm, @Nonnull byte[] fingerprint) {
+            this.vm = vm;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * The differences found by one sync.
+     */
+    static public class Delta {
+        private final List<VirtualMachine> added;
+        private final List<VirtualMachine> changed;
+        private final List<VirtualMachine> removed;
+        private final int total;
+
+        Delta(@Nonnull List<VirtualMachine> added, @Nonnull List<VirtualMachine> changed,
+                @Nonnull List<VirtualMachine> removed, int total) {
+            this.added = Collections.unmodifiableList(added);
+            this.changed = Collections.unmodifiableList(changed);
+            this.removed = Collections.unmodifiableList(removed);
+            this.total = total;
+        }
+
+        /**
+         * @return the servers that did not exist at the previous sync
+         */
+        public @Nonnull
+        List<VirtualMachine> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return the servers whose description changed since the previous sync, freshly converted
+         */
+        public @Nonnull
+        List<VirtualMachine> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return the servers that no longer exist, as they were at the previous sync
+         */
+        public @Nonnull
+        List<VirtualMachine> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the number of servers that exist now
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "[+" + added.size() + " ~" + changed.size() + " -" + removed.size() + " of " + total + "]";
+        }
+    }
+}
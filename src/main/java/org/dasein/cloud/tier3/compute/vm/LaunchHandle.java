@@ -0,0 +1,118 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.tier3.Deployment;
+
+/**
+ * A server build accepted by CenturyLink but not necessarily finished, as returned by
+ * {@link Tier3VM#launchAsync(org.dasein.cloud.compute.VMLaunchOptions)}. The build is followed by the
+ * deployment tracker of the provider, so holding a handle costs no thread; callers poll the progress
+ * accessors or block on {@link #getVirtualMachine(long, TimeUnit)} when they need the result.
+ */
+public class LaunchHandle {
+    private final Tier3VM support;
+    private final Deployment deployment;
+    private volatile VirtualMachine virtualMachine;
+
+    LaunchHandle(@Nonnull Tier3VM support, @Nonnull Deployment deployment) {
+        this.support = support;
+        this.deployment = deployment;
+    }
+
+    public int getRequestId() {
+        return deployment.getRequestId();
+    }
+
+    public int getPercentComplete() {
+        return deployment.getPercentComplete();
+    }
+
+    /**
+     * @return the underlying blueprint deployment
+     */
+    public @Nonnull
+    Deployment getDeployment() {
+        return deployment;
+    }
+
+    /**
+     * @return the name of the new server if the blueprint has handed it back yet, without blocking
+     */
+    public @Nullable
+    String getVirtualMachineId() {
+        List<String> servers = deployment.getServers();
+
+        return (servers.isEmpty() ? null : servers.get(0));
+    }
+
+    /**
+     * Waits for the blueprint to name the new server.
+     *
+     * @param timeout
+     *            the maximum time to wait
+     * @param unit
+     *            the unit of the timeout
+     * @return the server name, or <code>null</code> if it is not known yet
+     * @throws CloudException
+     *             the build failed or the caller was interrupted
+     */
+    public @Nullable
+    String awaitVirtualMachineId(long timeout, @Nonnull TimeUnit unit) throws CloudException {
+        List<String> servers = deployment.awaitServers(timeout, unit);
+
+        return (servers.isEmpty() ? null : servers.get(0));
+    }
+
+    /**
+     * Waits for the new server to be named and then to be visible through the API.
+     *
+     * @param timeout
+     *            the maximum time to wait for both
+     * @param unit
+     *            the unit of the timeout
+     * @return the server, or <code>null</code> if it did not become visible in time
+     * @throws CloudException
+     *             the build failed or the caller was interrupted
+     */
+    public @Nullable
+    VirtualMachine getVirtualMachine(long timeout, @Nonnull TimeUnit unit) throws CloudException,
+            InternalException {
+        VirtualMachine vm = virtualMachine;
+
+        if (vm != null) {
+            return vm;
+        }
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        String vmId = awaitVirtualMachineId(timeout, unit);
+
+        if (vmId == null) {
+            return null;
+        }
+        vm = support.awaitVisible(Collections.singletonList(vmId),
+                Math.max(0L, deadline - System.currentTimeMillis())).get(vmId);
+        if (vm != null) {
+            virtualMachine = vm;
+        }
+        return vm;
+    }
+
+    public boolean isDone() {
+        return deployment.isDone();
+    }
+
+    @Override
+    public String toString() {
+        String vmId = getVirtualMachineId();
+
+        return "[#" + getRequestId() + " " + getPercentComplete() + "%" + (vmId == null ? "" : " " + vmId) + "]";
+    }
+}
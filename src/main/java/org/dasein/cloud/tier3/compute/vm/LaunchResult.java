@@ -0,0 +1,88 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+
+/**
+ * The outcome of one slot of {@link Tier3VM#launchManyWithResults(org.dasein.cloud.compute.VMLaunchOptions, int)}.
+ * A slot either names the server it created or carries the error that stopped it. A created server
+ * that the API did not list yet when the launch gave up waiting is still a success, but is reported
+ * as not visible.
+ */
+public class LaunchResult {
+    private final int slot;
+    private final int requestId;
+    private final String virtualMachineId;
+    private final CloudException error;
+    private final boolean visible;
+
+    static @Nonnull
+    LaunchResult success(int slot, int requestId, @Nonnull String virtualMachineId) {
+        return new LaunchResult(slot, requestId, virtualMachineId, null, true);
+    }
+
+    static @Nonnull
+    LaunchResult notVisible(int slot, int requestId, @Nonnull String virtualMachineId) {
+        return new LaunchResult(slot, requestId, virtualMachineId, null, false);
+    }
+
+    static @Nonnull
+    LaunchResult failure(int slot, int requestId, @Nonnull CloudException error) {
+        return new LaunchResult(slot, requestId, null, error, false);
+    }
+
+    private LaunchResult(int slot, int requestId, @Nullable String virtualMachineId, @Nullable CloudException error,
+            boolean visible) {
+        this.slot = slot;
+        this.requestId = requestId;
+        this.virtualMachineId = virtualMachineId;
+        this.error = error;
+        this.visible = visible;
+    }
+
+    /**
+     * @return the position of this launch in the batch, starting at 0
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return the blueprint request ID, or -1 if the server was never accepted
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public @Nullable
+    String getVirtualMachineId() {
+        return virtualMachineId;
+    }
+
+    public @Nullable
+    CloudException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return true if the server was created and is listed by the API, false if it failed or did not
+     *         show up before the launch stopped waiting
+     */
+    public boolean isVisible() {
+        return visible;
+    }
+
+    @Override
+    public String toString() {
+        if (!isSuccess()) {
+            return "[" + slot + "] failed: " + error.getMessage();
+        }
+        return "[" + slot + "] " + virtualMachineId + (visible ? "" : " (not visible yet)");
+    }
+}
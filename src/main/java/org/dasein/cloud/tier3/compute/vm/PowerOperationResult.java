@@ -0,0 +1,59 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+
+/**
+ * The outcome of a bulk power operation for one server, as returned by methods such as
+ * {@link Tier3VM#startMany(java.util.Collection)}. A server either carries the request ID of the
+ * accepted operation or the error that stopped it.
+ */
+public class PowerOperationResult {
+    private final String virtualMachineId;
+    private final int requestId;
+    private final CloudException error;
+
+    static @Nonnull
+    PowerOperationResult success(@Nonnull String virtualMachineId, int requestId) {
+        return new PowerOperationResult(virtualMachineId, requestId, null);
+    }
+
+    static @Nonnull
+    PowerOperationResult failure(@Nonnull String virtualMachineId, @Nonnull CloudException error) {
+        return new PowerOperationResult(virtualMachineId, -1, error);
+    }
+
+    private PowerOperationResult(@Nonnull String virtualMachineId, int requestId, @Nullable CloudException error) {
+        this.virtualMachineId = virtualMachineId;
+        this.requestId = requestId;
+        this.error = error;
+    }
+
+    public @Nonnull
+    String getVirtualMachineId() {
+        return virtualMachineId;
+    }
+
+    /**
+     * @return the request ID of the operation, or -1 if it was not accepted or CenturyLink returned none
+     */
+    public int getRequestId() {
+        return requestId;
+    }
+
+    public @Nullable
+    CloudException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return virtualMachineId + ": " + (isSuccess() ? "#" + requestId : "failed: " + error.getMessage());
+    }
+}
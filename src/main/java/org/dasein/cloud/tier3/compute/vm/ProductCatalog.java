@@ -0,0 +1,213 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.dasein.cloud.tier3.compute.Tier3OS;
+import org.dasein.cloud.tier3.compute.Tier3OSRegistry;
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Storage;
+
+/**
+ * The virtual machine products of CenturyLink. Any supported operating system can run with any CPU
+ * count up to its maximum and a memory size from 1 to 16 GB in steps of 1, then up to its maximum in
+ * steps of 4. Rather than generating every combination, the catalog validates a combination on
+ * lookup and materializes a product the first time it is asked for, keeping the most recently looked
+ * up products only. Listings materialize their products without keeping them. Products are identified
+ * by their name, <code>&lt;os&gt;, &lt;cpu&gt; CPU, &lt;memory&gt; GB Memory</code>.
+ */
+class ProductCatalog {
+    static private final Pattern PRODUCT_ID = Pattern.compile("^(.+), (\\d+) CPU, (\\d+) GB Memory$");
+    static private final int FINE_MEMORY_LIMIT = 16;
+    static private final int COARSE_MEMORY_START = 20;
+    static private final int COARSE_MEMORY_STEP = 4;
+    static private final int MAX_CACHED_PRODUCTS = 256;
+
+    static private ProductCatalog instance;
+
+    /**
+     * @throws InternalException
+     *             the operating system table could not be loaded
+     */
+    static synchronized @Nonnull
+    ProductCatalog getInstance() throws InternalException {
+        if (instance == null) {
+            instance = new ProductCatalog(Tier3OSRegistry.getInstance());
+        }
+        return instance;
+    }
+
+    static @Nonnull
+    String toProductId(@Nonnull String os, int cpu, int memory) {
+        return os + ", " + cpu + " CPU, " + memory + " GB Memory";
+    }
+
+    private final Tier3OSRegistry registry;
+    private final Map<String, VirtualMachineProduct> products = new LinkedHashMap<String, VirtualMachineProduct>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 2961318537453398017L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VirtualMachineProduct> eldest) {
+            return size() > MAX_CACHED_PRODUCTS;
+        }
+    };
+
+    private ProductCatalog(@Nonnull Tier3OSRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @param productId
+     *            a product ID as generated by this catalog
+     * @return the matching product or <code>null</code> if the ID does not name a valid combination
+     */
+    @Nullable
+    VirtualMachineProduct getProduct(@Nullable String productId) {
+        if (productId == null) {
+            return null;
+        }
+        synchronized (products) {
+            VirtualMachineProduct product = products.get(productId);
+
+            if (product != null) {
+                return product;
+            }
+        }
+        Matcher m = PRODUCT_ID.matcher(productId);
+
+        if (!m.matches()) {
+            return null;
+        }
+        try {
+            return getProduct(m.group(1), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the product for the combination or <code>null</code> if it is not offered
+     */
+    @Nullable
+    VirtualMachineProduct getProduct(@Nonnull String osName, int cpu, int memory) {
+        Tier3OS os = registry.getByName(osName);
+
+        if (os == null || cpu < 1 || cpu > os.maxCpu || !isValidMemory(os, memory)) {
+            return null;
+        }
+        String id = toProductId(os.name, cpu, memory);
+
+        synchronized (products) {
+            VirtualMachineProduct product = products.get(id);
+
+            if (product == null) {
+                product = toProduct(id, cpu, memory);
+                products.put(id, product);
+            }
+            return product;
+        }
+    }
+
+    /**
+     * @param architecture
+     *            the architecture to list products for, or <code>null</code> for all
+     * @return every product for the architecture, materialized as the iteration reaches it
+     */
+    @Nonnull
+    Iterable<VirtualMachineProduct> listProducts(@Nullable Architecture architecture) {
+        final List<Tier3OS> systems = registry.list(architecture);
+
+        if (systems.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new Iterable<VirtualMachineProduct>() {
+            @Override
+            public Iterator<VirtualMachineProduct> iterator() {
+                return new Iterator<VirtualMachineProduct>() {
+                    private int osIndex = 0;
+                    private int cpu = 1;
+                    private int memory = 1;
+
+                    @Override
+                    public boolean hasNext() {
+                        return osIndex < systems.size();
+                    }
+
+                    @Override
+                    public VirtualMachineProduct next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Tier3OS os = systems.get(osIndex);
+                        VirtualMachineProduct product = toProduct(toProductId(os.name, cpu, memory), cpu, memory);
+
+                        advance(os);
+                        return product;
+                    }
+
+                    private void advance(@Nonnull Tier3OS os) {
+                        memory = nextMemory(os, memory);
+                        if (memory < 0) {
+                            memory = 1;
+                            cpu++;
+                            if (cpu > os.maxCpu) {
+                                cpu = 1;
+                                osIndex++;
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private boolean isValidMemory(@Nonnull Tier3OS os, int memory) {
+        if (memory >= 1 && memory <= FINE_MEMORY_LIMIT) {
+            return true;
+        }
+        return (memory >= COARSE_MEMORY_START && memory <= os.maxMemory && (memory - COARSE_MEMORY_START)
+                % COARSE_MEMORY_STEP == 0);
+    }
+
+    /**
+     * @return the memory size following the specified one, or -1 if it is the largest
+     */
+    private int nextMemory(@Nonnull Tier3OS os, int memory) {
+        int next = (memory < FINE_MEMORY_LIMIT ? memory + 1 : (memory < COARSE_MEMORY_START ? COARSE_MEMORY_START
+                : memory + COARSE_MEMORY_STEP));
+
+        return (isValidMemory(os, next) ? next : -1);
+    }
+
+    private @Nonnull
+    VirtualMachineProduct toProduct(@Nonnull String id, int cpu, int memory) {
+        VirtualMachineProduct product = new VirtualMachineProduct();
+
+        product.setName(id);
+        product.setRamSize(new Storage<Gigabyte>(memory, Storage.GIGABYTE));
+        product.setCpuCount(cpu);
+        product.setDescription(id);
+        product.setProviderProductId(id);
+        product.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
+        product.setStandardHourlyRate(0.0f);
+        return product;
+    }
+}
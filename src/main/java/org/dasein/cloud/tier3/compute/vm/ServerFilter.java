@@ -0,0 +1,86 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.tier3.compute.Tier3ComputeTranslations;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The part of a {@link VMFilterOptions} that can be checked on the raw <code>GetAllServers</code>
+ * JSON, so that servers the options reject are dropped before {@link Tier3VM} converts them. Only
+ * criteria that must all match are checked here: when the options match any criterion, or for
+ * criteria such as the VLAN that need the converted server, everything is left to
+ * {@link VMFilterOptions#matches(org.dasein.cloud.compute.VirtualMachine)}, which always has the last
+ * word.
+ * <p>
+ * A check is only made here when it rejects exactly the servers the options would reject once
+ * converted. The options match their regex against the name, description and ID of a server;
+ * {@link Tier3VM} derives all three from the <code>Name</code> field, so the regex is checked against
+ * that field alone, and only for servers that have one.
+ * </p>
+ */
+class ServerFilter {
+    static private final String HARDWARE_GROUP_TAG = "HardwareGroupID";
+
+    private final Tier3ComputeTranslations translations;
+    private final Pattern regex;
+    private final Set<VmState> states;
+    private final String hardwareGroupId;
+
+    ServerFilter(@Nullable VMFilterOptions options, @Nonnull Tier3ComputeTranslations translations) {
+        this.translations = translations;
+        if (options == null || options.isMatchesAny()) {
+            regex = null;
+            states = null;
+            hardwareGroupId = null;
+        } else {
+            Map<String, String> tags = options.getTags();
+            Set<VmState> vmStates = options.getVmStates();
+
+            regex = (options.getRegex() == null ? null : Pattern.compile(options.getRegex()));
+            states = (vmStates == null || vmStates.isEmpty() ? null : vmStates);
+            hardwareGroupId = (tags == null ? null : tags.get(HARDWARE_GROUP_TAG));
+        }
+    }
+
+    /**
+     * @return the hardware group all matching servers belong to, if the options name one
+     */
+    @Nullable
+    String getHardwareGroupId() {
+        return hardwareGroupId;
+    }
+
+    /**
+     * @param server
+     *            a server as returned by <code>GetAllServers</code>
+     * @return false if the options certainly reject the server
+     */
+    boolean accepts(@Nonnull JSONObject server) throws CloudException {
+        String name = server.optString("Name", null);
+
+        if (regex != null && name != null && name.length() > 0 && !regex.matcher(name).matches()) {
+            return false;
+        }
+        try {
+            if (states != null && !states.contains(translations.toVmState(server))) {
+                return false;
+            }
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        }
+        if (hardwareGroupId != null && !hardwareGroupId.equals(server.optString(HARDWARE_GROUP_TAG, null))) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -2,9 +2,22 @@ package org.dasein.cloud.tier3.compute.vm;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -34,15 +47,16 @@ import org.dasein.cloud.compute.VmState;
 import org.dasein.cloud.compute.VmStatistics;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.RawAddress;
-import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.tier3.APIHandler;
 import org.dasein.cloud.tier3.APIResponse;
+import org.dasein.cloud.tier3.APIStream;
+import org.dasein.cloud.tier3.APIStreamIterable;
+import org.dasein.cloud.tier3.Deployment;
 import org.dasein.cloud.tier3.Tier3;
 import org.dasein.cloud.tier3.compute.Tier3OS;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.NamingConstraints;
 import org.dasein.util.CalendarWrapper;
-import org.dasein.util.uom.storage.Gigabyte;
 import org.dasein.util.uom.storage.Storage;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -50,10 +64,17 @@ import org.json.JSONObject;
 
 public class Tier3VM implements VirtualMachineSupport {
     static private final Logger logger = Tier3.getLogger(Tier3VM.class);
+
+    static public final String LAUNCH_CONCURRENCY = "launchConcurrency";
+    static public final String HARDWARE_GROUP_TTL = "hardwareGroupTtl";
+    static public final String VM_STATE_TTL = "vmStateTtl";
+    static public final String POWER_CONCURRENCY = "powerConcurrency";
     private Tier3 provider;
+    private VmStateCache states;
 
     public Tier3VM(Tier3 provider) {
         this.provider = provider;
+        this.states = new VmStateCache(provider);
     }
 
     @Override
@@ -85,6 +106,7 @@ public class Tier3VM implements VirtualMachineSupport {
 
             APIResponse response = method.post("Server/ConfigureServer/JSON", post.toString());
             response.validate();
+            states.invalidate(vmId);
 
             return vm;
 
@@ -136,12 +158,7 @@ public class Tier3VM implements VirtualMachineSupport {
 
     @Override
     public VirtualMachineProduct getProduct(String productId) throws InternalException, CloudException {
-        for (VirtualMachineProduct product : listProducts(null)) {
-            if (productId != null && productId.equals(product.getProviderProductId())) {
-                return product;
-            }
-        }
-        return null;
+        return ProductCatalog.getInstance().getProduct(productId);
     }
 
     public VirtualMachineProduct getProduct(String os, Integer cpu, Integer memory) throws InternalException,
@@ -149,13 +166,7 @@ public class Tier3VM implements VirtualMachineSupport {
         if (os == null || cpu == null || memory == null) {
             return null;
         }
-        for (VirtualMachineProduct product : listProducts(null)) {
-            if (product.getCpuCount() == cpu && product.getRamSize().convertTo(Storage.GIGABYTE).intValue() == memory
-                    && product.getName().startsWith(os)) {
-                return product;
-            }
-        }
-        return null;
+        return ProductCatalog.getInstance().getProduct(os, cpu, memory);
     }
 
     @Override
@@ -174,6 +185,16 @@ public class Tier3VM implements VirtualMachineSupport {
         APIHandler method = new APIHandler(provider);
 
         try {
+            JSONObject cached = states.get(vmId);
+            if (cached != null) {
+                VirtualMachine vm = toVirtualMachine(cached, VlanIndex.load(provider));
+                VmState pending = VmStateCache.getPendingState(cached);
+                if (vm != null && pending != null) {
+                    vm.setCurrentState(pending);
+                }
+                return vm;
+            }
+
             JSONObject json = new JSONObject();
             json.put("Name", vmId);
             APIResponse response = method.post("Server/GetServer/JSON", json.toString());
@@ -187,7 +208,12 @@ public class Tier3VM implements VirtualMachineSupport {
                 }
             }
 
-            return toVirtualMachine(response.getJSON().getJSONObject("Server"));
+            JSONObject server = response.getJSON().getJSONObject("Server");
+            VirtualMachine vm = toVirtualMachine(server, VlanIndex.load(provider));
+            if (vm != null && vm.getProviderVirtualMachineId() != null) {
+                states.put(vm.getProviderVirtualMachineId(), server);
+            }
+            return vm;
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -195,7 +221,8 @@ public class Tier3VM implements VirtualMachineSupport {
         }
     }
 
-    private VirtualMachine toVirtualMachine(JSONObject ob) throws CloudException, InternalException {
+    VirtualMachine toVirtualMachine(JSONObject ob, VlanIndex vlans) throws CloudException,
+            InternalException {
         if (ob == null) {
             return null;
         }
@@ -259,14 +286,16 @@ public class Tier3VM implements VirtualMachineSupport {
             }
 
             if (ob.has("OperatingSystem")) {
-                String os = provider.getComputeTranslations().translateOS(ob.get("OperatingSystem"));
-                vm.setArchitecture(provider.getComputeTranslations().toArchitecture(os));
-                vm.setPlatform(Platform.guess(os));
-                if (ob.has("Cpu") && ob.getInt("Cpu") > 0 && ob.has("MemoryGB") && ob.getInt("MemoryGB") > 0) {
-                    vm.setProductId(getProduct(os, ob.getInt("Cpu"), ob.getInt("MemoryGB")).getProviderProductId());
-                } else {
-                    vm.setProductId("-1");
+                Tier3OS os = provider.getComputeTranslations().toOperatingSystem(ob.get("OperatingSystem"));
+                VirtualMachineProduct product = null;
+                if (os != null) {
+                    vm.setArchitecture(os.architecture);
+                    vm.setPlatform(os.platform);
+                    if (ob.has("Cpu") && ob.getInt("Cpu") > 0 && ob.has("MemoryGB") && ob.getInt("MemoryGB") > 0) {
+                        product = getProduct(os.name, ob.getInt("Cpu"), ob.getInt("MemoryGB"));
+                    }
                 }
+                vm.setProductId(product == null ? "-1" : product.getProviderProductId());
             }
 
             if (ob.has("CustomFields") && !ob.isNull("CustomFields") && ob.getJSONArray("CustomFields").length() > 0) {
@@ -279,21 +308,12 @@ public class Tier3VM implements VirtualMachineSupport {
 
             // since vlan isn't handed back in get server, need to look it up
             // and match on ip
-            Iterable<VLAN> vlans = provider.getNetworkServices().getVlanSupport().listVlans();
             JSONArray ips = ob.getJSONArray("IPAddresses");
-            for (VLAN vlan : vlans) {
-                for (int i = 0; i < ips.length(); i++) {
-                    JSONObject ip = ips.getJSONObject(i);
-                    String address = ip.getString("Address").substring(0, ip.getString("Address").lastIndexOf("."));
-                    if (vlan.getName().contains(address)) {
-                        vm.setProviderVlanId(vlan.getProviderVlanId());
-                        break;
-                    }
-                }
-                if (vm.getProviderVlanId() != null) {
-                    break;
-                }
+            ArrayList<String> addresses = new ArrayList<String>();
+            for (int i = 0; i < ips.length(); i++) {
+                addresses.add(ips.getJSONObject(i).getString("Address"));
             }
+            vm.setProviderVlanId(vlans.getVlanId(addresses));
 
             return vm;
         } catch (JSONException e) {
@@ -381,111 +401,49 @@ public class Tier3VM implements VirtualMachineSupport {
     public VirtualMachine launch(VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
         APITrace.begin(provider, "launch");
         try {
-            MachineImage template = provider.getComputeServices().getImageSupport()
-                    .getImage(withLaunchOptions.getMachineImageId());
-            if (template == null) {
-                throw new CloudException("No such image: " + withLaunchOptions.getMachineImageId());
-            }
+            LaunchHandle handle = launchAsync(withLaunchOptions);
 
-            VirtualMachineProduct product = getProduct(withLaunchOptions.getStandardProductId());
-            if (withLaunchOptions.getStandardProductId() == null && product == null) {
-                throw new CloudException("No such product: " + withLaunchOptions.getStandardProductId());
+            // wait for CLC blueprints to at least hand back the server name
+            String vmId = handle.awaitVirtualMachineId(CalendarWrapper.MINUTE * 2, TimeUnit.MILLISECONDS);
+            if (vmId == null) {
+                throw new CloudException("Timed out waiting for deployment " + handle.getRequestId()
+                        + " to name the server");
             }
 
-            APIHandler method = new APIHandler(provider);
-            JSONObject post = new JSONObject();
-
-            if (withLaunchOptions.getDataCenterId() != null) {
-                post.put("LocationAlias", withLaunchOptions.getDataCenterId());
-            }
-            post.put("Template", template.getName());
-            post.put("Cpu", product.getCpuCount());
-            post.put("MemoryGB", product.getRamSize().convertTo(Storage.GIGABYTE).intValue());
-            post.put("HardwareGroupID", getDefaultHardwareGroupId(withLaunchOptions.getDataCenterId()));
-            post.put("Alias", validateName(withLaunchOptions.getHostName()));
-            post.put("Description", withLaunchOptions.getDescription());
-            if (withLaunchOptions.getMetaData().containsKey("ServerType")) {
-                post.put("ServerType", withLaunchOptions.getMetaData().get("ServerType"));
-            } else {
-                post.put("ServerType", 1);
-            }
-            if (withLaunchOptions.getMetaData().containsKey("ServiceLevel")) {
-                post.put("ServiceLevel", withLaunchOptions.getMetaData().get("ServiceLevel"));
-            } else {
-                post.put("ServiceLevel", 1);
-            }
-            if (withLaunchOptions.getVolumes() != null && withLaunchOptions.getVolumes().length > 0) {
-                if (withLaunchOptions.getVolumes().length > 1) {
-                    throw new CloudException("Only one volume allowed at server creation.");
-                }
-                VolumeAttachment vol = withLaunchOptions.getVolumes()[0];
-                post.put("ExtraDriveGB", vol.volumeToCreate.getVolumeSize().intValue());
-            } else {
-                post.put("ExtraDriveGB", 0);
-            }
-            post.put("Network", withLaunchOptions.getVlanId());
-
-            // TODO Dasein tests contain insufficiently strong passwords
-            // if (withLaunchOptions.getBootstrapPassword() != null) {
-            // post.put("Password", withLaunchOptions.getBootstrapPassword());
-            // }
+            // now wait for CLC to recognize the server exists
+            return handle.getVirtualMachine(CalendarWrapper.MINUTE * 2, TimeUnit.MILLISECONDS);
+        } finally {
+            APITrace.end();
+        }
+    }
 
-            Map<String, Object> meta = withLaunchOptions.getMetaData();
+    /**
+     * Submits a server build and returns as soon as CenturyLink has accepted it. The build is followed
+     * in the background by the deployment tracker; use the returned handle to check its progress or
+     * wait for the server.
+     * 
+     * @param withLaunchOptions
+     *            the launch options
+     * @return a handle on the accepted build
+     * @throws CloudException
+     *             the build was rejected
+     * @throws InternalException
+     *             the launch options could not be resolved
+     */
+    public LaunchHandle launchAsync(VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+        APITrace.begin(provider, "launchAsync");
+        try {
+            MachineImage template = resolveImage(withLaunchOptions);
+            VirtualMachineProduct product = resolveProduct(withLaunchOptions);
+            int hardwareGroupId = getDefaultHardwareGroupId(withLaunchOptions.getDataCenterId());
+            JSONObject post = toCreateServerRequest(withLaunchOptions, template, product, hardwareGroupId);
 
-            if (meta.size() > 0) {
-                JSONArray customFields = new JSONArray();
-                for (Map.Entry<String, Object> entry : meta.entrySet()) {
-                    JSONObject cf = new JSONObject();
-                    cf.put("CustomFieldID", entry.getKey());
-                    cf.put("Value", entry.getValue().toString());
-                    customFields.put(cf);
-                }
-                post.put("CustomFields", customFields);
-            }
+            APIHandler method = new APIHandler(provider);
             APIResponse response = method.post("Server/CreateServer/JSON", post.toString());
             response.validate();
 
-            String vmId = null;
-            long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 2);
             int requestId = response.getJSON().getInt("RequestID");
-            while (timeout > System.currentTimeMillis()) {
-
-                // wait for CLC blueprints to at least hand back the server name
-                JSONObject deployStatus = provider.getDeploymentStatus(requestId);
-                JSONArray servers = deployStatus.getJSONArray("Servers");
-                if (deployStatus.has("Servers") && !deployStatus.isNull("Servers") && servers.length() > 0) {
-                    vmId = servers.get(0).toString();
-                    break;
-                } else {
-                    try {
-                        Thread.sleep(10000L);
-                    } catch (InterruptedException ignore) {
-                    }
-                }
-            }
-
-            // now wait for CLC to recognize the server exists
-            VirtualMachine vm = getVirtualMachine(vmId);
-            if (vm == null || (vm.getName() == null)) {
-                timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 2);
-
-                while (timeout > System.currentTimeMillis()) {
-                    try {
-                        Thread.sleep(10000L);
-                    } catch (InterruptedException ignore) {
-                    }
-                    try {
-                        vm = getVirtualMachine(vmId);
-                    } catch (Throwable ignore) {
-                    }
-                    if (vm != null && vm.getName() != null) {
-                        break;
-                    }
-                }
-            }
-
-            return vm;
-
+            return new LaunchHandle(this, provider.getDeploymentTracker().track(requestId));
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -493,6 +451,123 @@ public class Tier3VM implements VirtualMachineSupport {
         }
     }
 
+    private MachineImage resolveImage(VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+        MachineImage template = provider.getComputeServices().getImageSupport()
+                .getImage(withLaunchOptions.getMachineImageId());
+        if (template == null) {
+            throw new CloudException("No such image: " + withLaunchOptions.getMachineImageId());
+        }
+        return template;
+    }
+
+    private VirtualMachineProduct resolveProduct(VMLaunchOptions withLaunchOptions) throws CloudException,
+            InternalException {
+        VirtualMachineProduct product = getProduct(withLaunchOptions.getStandardProductId());
+        if (product == null) {
+            throw new CloudException("No such product: " + withLaunchOptions.getStandardProductId());
+        }
+        return product;
+    }
+
+    private JSONObject toCreateServerRequest(VMLaunchOptions withLaunchOptions, MachineImage template,
+            VirtualMachineProduct product, int hardwareGroupId) throws CloudException, JSONException {
+        JSONObject post = new JSONObject();
+
+        if (withLaunchOptions.getDataCenterId() != null) {
+            post.put("LocationAlias", withLaunchOptions.getDataCenterId());
+        }
+        post.put("Template", template.getName());
+        post.put("Cpu", product.getCpuCount());
+        post.put("MemoryGB", product.getRamSize().convertTo(Storage.GIGABYTE).intValue());
+        post.put("HardwareGroupID", hardwareGroupId);
+        post.put("Alias", validateName(withLaunchOptions.getHostName()));
+        post.put("Description", withLaunchOptions.getDescription());
+        if (withLaunchOptions.getMetaData().containsKey("ServerType")) {
+            post.put("ServerType", withLaunchOptions.getMetaData().get("ServerType"));
+        } else {
+            post.put("ServerType", 1);
+        }
+        if (withLaunchOptions.getMetaData().containsKey("ServiceLevel")) {
+            post.put("ServiceLevel", withLaunchOptions.getMetaData().get("ServiceLevel"));
+        } else {
+            post.put("ServiceLevel", 1);
+        }
+        if (withLaunchOptions.getVolumes() != null && withLaunchOptions.getVolumes().length > 0) {
+            if (withLaunchOptions.getVolumes().length > 1) {
+                throw new CloudException("Only one volume allowed at server creation.");
+            }
+            VolumeAttachment vol = withLaunchOptions.getVolumes()[0];
+            post.put("ExtraDriveGB", vol.volumeToCreate.getVolumeSize().intValue());
+        } else {
+            post.put("ExtraDriveGB", 0);
+        }
+        post.put("Network", withLaunchOptions.getVlanId());
+
+        // TODO Dasein tests contain insufficiently strong passwords
+        // if (withLaunchOptions.getBootstrapPassword() != null) {
+        // post.put("Password", withLaunchOptions.getBootstrapPassword());
+        // }
+
+        Map<String, Object> meta = withLaunchOptions.getMetaData();
+
+        if (meta.size() > 0) {
+            JSONArray customFields = new JSONArray();
+            for (Map.Entry<String, Object> entry : meta.entrySet()) {
+                JSONObject cf = new JSONObject();
+                cf.put("CustomFieldID", entry.getKey());
+                cf.put("Value", entry.getValue().toString());
+                customFields.put(cf);
+            }
+            post.put("CustomFields", customFields);
+        }
+        return post;
+    }
+
+    /**
+     * Waits for CLC to recognize newly built servers, checking every pending server on each pass.
+     * 
+     * @param vmIds
+     *            the names of the servers to wait for
+     * @param timeout
+     *            the maximum time to wait in milliseconds
+     * @return the servers found by name; servers that did not show up in time map to null
+     */
+    Map<String, VirtualMachine> awaitVisible(Collection<String> vmIds, long timeout) throws CloudException {
+        HashMap<String, VirtualMachine> found = new HashMap<String, VirtualMachine>();
+        ArrayList<String> pending = new ArrayList<String>(vmIds);
+        long deadline = System.currentTimeMillis() + timeout;
+        long delay = 2000L;
+
+        while (true) {
+            for (Iterator<String> it = pending.iterator(); it.hasNext();) {
+                String vmId = it.next();
+                VirtualMachine vm = null;
+                try {
+                    vm = getVirtualMachine(vmId);
+                } catch (Throwable ignore) {
+                }
+                if (vm != null && vm.getName() != null) {
+                    found.put(vmId, vm);
+                    it.remove();
+                }
+            }
+            if (pending.isEmpty() || System.currentTimeMillis() + delay > deadline) {
+                break;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudException(e);
+            }
+            delay = Math.min(10000L, (long) (delay * 1.5));
+        }
+        for (String vmId : pending) {
+            found.put(vmId, null);
+        }
+        return found;
+    }
+
     private String validateName(String originalName) {
         StringBuilder name = new StringBuilder();
 
@@ -549,41 +624,7 @@ public class Tier3VM implements VirtualMachineSupport {
     @Override
     public Iterable<VirtualMachineProduct> listProducts(Architecture architecture) throws InternalException,
             CloudException {
-
-        ArrayList<VirtualMachineProduct> products = new ArrayList<VirtualMachineProduct>();
-
-        for (Tier3OS os : provider.getComputeTranslations().getOperatingSystems(architecture)) {
-            for (int cpu = 1; cpu <= os.maxCpu; cpu++) {
-
-                // for lower numbers, increment by 1
-                for (int mem = 1; mem <= 16; mem++) {
-                    VirtualMachineProduct product = new VirtualMachineProduct();
-                    product.setName(os.name + ", " + cpu + " CPU, " + mem + " GB Memory");
-                    product.setRamSize(new Storage<Gigabyte>(mem, Storage.GIGABYTE));
-                    product.setCpuCount(cpu);
-                    product.setDescription(product.getName());
-                    product.setProviderProductId(product.getName());
-                    product.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
-                    product.setStandardHourlyRate(0.0f);
-                    products.add(product);
-                }
-
-                // for higher ranges, increment by 4
-                for (int mem = 20; mem <= os.maxMemory; mem += 4) {
-                    VirtualMachineProduct product = new VirtualMachineProduct();
-                    product.setName(os.name + ", " + cpu + " CPU, " + mem + " GB Memory");
-                    product.setRamSize(new Storage<Gigabyte>(mem, Storage.GIGABYTE));
-                    product.setCpuCount(cpu);
-                    product.setDescription(product.getName());
-                    product.setProviderProductId(product.getName());
-                    product.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
-                    product.setStandardHourlyRate(0.0f);
-                    products.add(product);
-                }
-            }
-        }
-
-        return products;
+        return ProductCatalog.getInstance().listProducts(architecture);
     }
 
     @Override
@@ -592,35 +633,73 @@ public class Tier3VM implements VirtualMachineSupport {
     }
 
     @Override
+    /**
+     * Streams the name and state of every server straight from the <code>GetAllServers</code> response,
+     * without the product, VLAN and tag resolution of a full listing.
+     */
     public Iterable<ResourceStatus> listVirtualMachineStatus() throws InternalException, CloudException {
-        ArrayList<ResourceStatus> vms = new ArrayList<ResourceStatus>();
-        for (VirtualMachine vm : listVirtualMachines()) {
-            vms.add(new ResourceStatus(vm.getProviderVirtualMachineId(), vm.getCurrentState()));
+        APITrace.begin(provider, "listVirtualMachineStatus");
+        try {
+            return new APIStreamIterable<ResourceStatus>() {
+                @Override
+                protected APIStream open() throws CloudException, InternalException {
+                    return new APIHandler(provider).postStream("Server/GetAllServers/JSON", "", "Servers");
+                }
+
+                @Override
+                protected ResourceStatus toResource(JSONObject json) throws CloudException, InternalException {
+                    return provider.getComputeTranslations().toVmStatus(json);
+                }
+            }.start();
+        } finally {
+            APITrace.end();
         }
-        return vms;
     }
 
     @Override
     public Iterable<VirtualMachine> listVirtualMachines() throws InternalException, CloudException {
         APITrace.begin(provider, "listVirtualMachines");
         try {
-            APIHandler method = new APIHandler(provider);
-            APIResponse response = method.post("Server/GetAllServers/JSON", "");
-            response.validate();
+            return listServers(new JSONObject(), null, new ServerFilter(null, provider.getComputeTranslations()));
+        } finally {
+            APITrace.end();
+        }
+    }
 
-            ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+    @Override
+    public Iterable<VirtualMachine> listVirtualMachines(VMFilterOptions options) throws InternalException,
+            CloudException {
+        return listVirtualMachines(options, null);
+    }
 
-            JSONObject json = response.getJSON();
-            if (json.has("Servers")) {
-                for (int i = 0; i < json.getJSONArray("Servers").length(); i++) {
-                    VirtualMachine vm = toVirtualMachine(json.getJSONArray("Servers").getJSONObject(i));
-                    if (vm != null) {
-                        vms.add(vm);
-                    }
-                }
+    /**
+     * Lists the servers matching the filter options, optionally in a single data center. The data
+     * center and a <code>HardwareGroupID</code> tag, when all criteria must match, scope the
+     * <code>GetAllServers</code> request itself; the name regex, states and hardware group are then
+     * checked on the raw response so that only servers that may match are converted.
+     * 
+     * @param options
+     *            the filter options, or <code>null</code> for every server
+     * @param dataCenterId
+     *            the data center to list, or <code>null</code> for every data center
+     * @return the matching servers
+     */
+    public Iterable<VirtualMachine> listVirtualMachines(VMFilterOptions options, String dataCenterId)
+            throws InternalException, CloudException {
+        APITrace.begin(provider, "listVirtualMachines");
+        try {
+            ServerFilter filter = new ServerFilter(options, provider.getComputeTranslations());
+            JSONObject post = new JSONObject();
+            if (dataCenterId != null) {
+                post.put("Location", dataCenterId);
             }
-
-            return vms;
+            if (filter.getHardwareGroupId() != null) {
+                post.put("HardwareGroupID", filter.getHardwareGroupId());
+            }
+            if (options == null || !options.hasCriteria()) {
+                return listServers(post, null, filter);
+            }
+            return listServers(post, options, filter);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -628,10 +707,39 @@ public class Tier3VM implements VirtualMachineSupport {
         }
     }
 
-    @Override
-    public Iterable<VirtualMachine> listVirtualMachines(VMFilterOptions options) throws InternalException,
-            CloudException {
-        return listVirtualMachines();
+    /**
+     * @return a new incremental inventory of the servers of the account, bound to this provider
+     */
+    public InventorySync newInventorySync() {
+        return new InventorySync(provider, this);
+    }
+
+    private Iterable<VirtualMachine> listServers(final JSONObject post, final VMFilterOptions options,
+            final ServerFilter filter) throws CloudException, InternalException {
+        final String body = (post.length() == 0 ? "" : post.toString());
+
+        return new APIStreamIterable<VirtualMachine>() {
+            private VlanIndex vlans;
+
+            @Override
+            protected APIStream open() throws CloudException, InternalException {
+                return new APIHandler(provider).postStream("Server/GetAllServers/JSON", body, "Servers");
+            }
+
+            @Override
+            protected VirtualMachine toResource(JSONObject json) throws CloudException, InternalException {
+                if (!filter.accepts(json)) {
+                    return null;
+                }
+                synchronized (this) {
+                    if (vlans == null) {
+                        vlans = VlanIndex.load(provider);
+                    }
+                }
+                VirtualMachine vm = toVirtualMachine(json, vlans);
+                return (options == null || options.matches(vm) ? vm : null);
+            }
+        }.start();
     }
 
     @Override
@@ -643,6 +751,7 @@ public class Tier3VM implements VirtualMachineSupport {
             json.put("Name", vmId);
             APIResponse response = method.post("Server/PauseServer/JSON", json.toString());
             response.validate();
+            followPowerOperation(vmId, response, VmState.PAUSING);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -659,6 +768,7 @@ public class Tier3VM implements VirtualMachineSupport {
             json.put("Name", vmId);
             APIResponse response = method.post("Server/RebootServer/JSON", json.toString());
             response.validate();
+            followPowerOperation(vmId, response, VmState.REBOOTING);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -679,6 +789,7 @@ public class Tier3VM implements VirtualMachineSupport {
             }
             APIResponse apiResponse = method.post("Server/RestoreServer/JSON", json.toString());
             apiResponse.validate();
+            followPowerOperation(vmId, apiResponse, VmState.PENDING);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -695,6 +806,7 @@ public class Tier3VM implements VirtualMachineSupport {
             json.put("Name", vmId);
             APIResponse response = method.post("Server/PowerOnServer/JSON", json.toString());
             response.validate();
+            followPowerOperation(vmId, response, VmState.PENDING);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -721,6 +833,7 @@ public class Tier3VM implements VirtualMachineSupport {
                 apiResponse = method.post("Server/ShutdownServer/JSON", json.toString());
             }
             apiResponse.validate();
+            followPowerOperation(vmId, apiResponse, VmState.STOPPING);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -728,6 +841,152 @@ public class Tier3VM implements VirtualMachineSupport {
         }
     }
 
+    /**
+     * Powers on several servers at once.
+     * 
+     * @param vmIds
+     *            the names of the servers
+     * @return the outcome for each server, in the order given
+     * @see #powerMany(String, String, Collection, VmState)
+     */
+    public Map<String, PowerOperationResult> startMany(Collection<String> vmIds) throws CloudException,
+            InternalException {
+        return powerMany("startMany", "Server/PowerOnServer/JSON", vmIds, VmState.PENDING);
+    }
+
+    /**
+     * Shuts down, or powers off if <code>force</code> is set, several servers at once.
+     * 
+     * @see #powerMany(String, String, Collection, VmState)
+     */
+    public Map<String, PowerOperationResult> stopMany(Collection<String> vmIds, boolean force)
+            throws CloudException, InternalException {
+        return powerMany("stopMany", force ? "Server/PowerOffServer/JSON" : "Server/ShutdownServer/JSON", vmIds,
+                VmState.STOPPING);
+    }
+
+    /**
+     * @see #powerMany(String, String, Collection, VmState)
+     */
+    public Map<String, PowerOperationResult> pauseMany(Collection<String> vmIds) throws CloudException,
+            InternalException {
+        return powerMany("pauseMany", "Server/PauseServer/JSON", vmIds, VmState.PAUSING);
+    }
+
+    /**
+     * @see #powerMany(String, String, Collection, VmState)
+     */
+    public Map<String, PowerOperationResult> rebootMany(Collection<String> vmIds) throws CloudException,
+            InternalException {
+        return powerMany("rebootMany", "Server/RebootServer/JSON", vmIds, VmState.REBOOTING);
+    }
+
+    /**
+     * @see #powerMany(String, String, Collection, VmState)
+     */
+    public Map<String, PowerOperationResult> suspendMany(Collection<String> vmIds) throws CloudException,
+            InternalException {
+        return powerMany("suspendMany", "Server/ArchiveServer/JSON", vmIds, VmState.SUSPENDING);
+    }
+
+    /**
+     * @see #powerMany(String, String, Collection, VmState)
+     */
+    public Map<String, PowerOperationResult> terminateMany(Collection<String> vmIds) throws CloudException,
+            InternalException {
+        return powerMany("terminateMany", "Server/DeleteServer/JSON", vmIds, VmState.STOPPING);
+    }
+
+    /**
+     * Posts the same power operation for many servers on the provider executor, at most
+     * {@link #POWER_CONCURRENCY} (default 10) at a time. A server that fails does not stop the
+     * others; its error is reported in its result instead. Each accepted operation is followed like a
+     * single one: the cached server gets the state it is put in until its deployment completes.
+     * 
+     * @return the outcome for each distinct server, in the order given
+     * @throws InternalException
+     *             the operations could not be submitted or the caller was interrupted
+     */
+    private Map<String, PowerOperationResult> powerMany(String operation, String resource, Collection<String> vmIds,
+            VmState state) throws CloudException, InternalException {
+        APITrace.begin(provider, operation);
+        try {
+            List<String> servers = new ArrayList<String>(new LinkedHashSet<String>(vmIds));
+            int concurrency = Math.max(1, provider.getIntProperty(POWER_CONCURRENCY, 10));
+
+            APIHandler method = new APIHandler(provider);
+            LinkedHashMap<String, PowerOperationResult> results = new LinkedHashMap<String, PowerOperationResult>();
+            ArrayList<Future<APIResponse>> submissions = new ArrayList<Future<APIResponse>>();
+            int oldest = 0;
+
+            try {
+                for (int i = 0; i < servers.size(); i++) {
+                    if (i - oldest >= concurrency) {
+                        results.put(servers.get(oldest), acceptPower(servers.get(oldest), submissions.get(oldest), state));
+                        oldest++;
+                    }
+                    JSONObject json = new JSONObject();
+                    json.put("Name", servers.get(i));
+                    submissions.add(method.postAsync(resource, json.toString()));
+                }
+                for (; oldest < servers.size(); oldest++) {
+                    results.put(servers.get(oldest), acceptPower(servers.get(oldest), submissions.get(oldest), state));
+                }
+            } catch (InternalException e) {
+                for (Future<APIResponse> submission : submissions) {
+                    submission.cancel(true);
+                }
+                throw e;
+            }
+            return results;
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    private PowerOperationResult acceptPower(String vmId, Future<APIResponse> submission, VmState state)
+            throws InternalException {
+        try {
+            APIResponse response = submission.get();
+            response.validate();
+            followPowerOperation(vmId, response, state);
+            return PowerOperationResult.success(vmId, response.getJSON().optInt("RequestID", -1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return PowerOperationResult.failure(vmId, cause instanceof CloudException ? (CloudException) cause
+                    : new CloudException(cause));
+        } catch (CloudException e) {
+            return PowerOperationResult.failure(vmId, e);
+        } catch (JSONException e) {
+            return PowerOperationResult.failure(vmId, new CloudException(e));
+        }
+    }
+
+    /**
+     * Records the state a power operation puts the server in and drops the cached server once the
+     * deployment of the operation completes.
+     */
+    private void followPowerOperation(String vmId, APIResponse response, VmState state) throws CloudException {
+        states.transition(vmId, state);
+
+        int requestId = response.getJSON().optInt("RequestID", -1);
+        if (requestId < 0) {
+            states.invalidate(vmId);
+            return;
+        }
+        try {
+            provider.getDeploymentTracker().track(requestId).whenDone(states.invalidator(vmId));
+        } catch (CloudException e) {
+            logger.warn("Unable to track the deployment of " + vmId + ": " + e.getMessage());
+            states.invalidate(vmId);
+        }
+    }
+
     @Override
     public boolean supportsAnalytics() throws CloudException, InternalException {
         return false;
@@ -757,6 +1016,7 @@ public class Tier3VM implements VirtualMachineSupport {
             json.put("Name", vmId);
             APIResponse apiResponse = method.post("Server/ArchiveServer/JSON", json.toString());
             apiResponse.validate();
+            followPowerOperation(vmId, apiResponse, VmState.SUSPENDING);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -773,6 +1033,7 @@ public class Tier3VM implements VirtualMachineSupport {
             json.put("Name", vmId);
             APIResponse response = method.post("Server/DeleteServer/JSON", json.toString());
             response.validate();
+            followPowerOperation(vmId, response, VmState.STOPPING);
         } catch (JSONException e) {
             throw new CloudException(e);
         } finally {
@@ -805,8 +1066,34 @@ public class Tier3VM implements VirtualMachineSupport {
         throw new OperationNotSupportedException();
     }
 
+    /**
+     * @param dataCenterId
+     *            the data center to look in
+     * @return the ID of the default hardware group of the data center, cached for
+     *         {@link #HARDWARE_GROUP_TTL}
+     */
     public int getDefaultHardwareGroupId(String dataCenterId) throws CloudException, InternalException {
         APITrace.begin(provider, "getDefaultHardwareGroupId");
+        try {
+            return HardwareGroups.getDefaultGroupId(provider, this, dataCenterId);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Forgets the cached default hardware group of a data center, for instance after the hardware
+     * groups of the account have been reorganized.
+     * 
+     * @param dataCenterId
+     *            the data center, or <code>null</code> for every data center of the account
+     */
+    public void invalidateDefaultHardwareGroup(String dataCenterId) throws CloudException {
+        HardwareGroups.invalidate(provider, dataCenterId);
+    }
+
+    int loadDefaultHardwareGroupId(String dataCenterId) throws CloudException, InternalException {
+        APITrace.begin(provider, "loadDefaultHardwareGroupId");
         APIHandler method = new APIHandler(provider);
 
         try {
@@ -1071,12 +1358,181 @@ public class Tier3VM implements VirtualMachineSupport {
     public Iterable<String> launchMany(VMLaunchOptions withLaunchOptions, int count) throws CloudException,
             InternalException {
         ArrayList<String> vms = new ArrayList<String>();
-        for (int i = 0; i < count; i++) {
-            vms.add(launch(withLaunchOptions).getName());
+        CloudException failure = null;
+        for (LaunchResult result : launchManyWithResults(withLaunchOptions, count)) {
+            if (result.isSuccess()) {
+                if (!result.isVisible()) {
+                    logger.warn("Launch " + result + " of " + count);
+                }
+                vms.add(result.getVirtualMachineId());
+            } else {
+                logger.warn("Launch " + result + " of " + count);
+                if (failure == null) {
+                    failure = result.getError();
+                }
+            }
+        }
+        if (vms.isEmpty() && failure != null) {
+            throw failure;
         }
         return vms;
     }
 
+    /**
+     * Launches several identical servers at once. The image, product and hardware group are resolved
+     * once, then up to <code>launchConcurrency</code> (default 5) <code>Server/CreateServer</code>
+     * requests are kept in flight on the provider executor. Requests are accepted in the order they
+     * complete, so a slow request does not hold back the slots after it. All resulting deployments are
+     * tracked together, so the whole batch waits about as long as its slowest server rather than the
+     * sum of all of them. A server that is created but not listed by the API within two minutes is
+     * reported as not {@link LaunchResult#isVisible() visible}.
+     * 
+     * @param withLaunchOptions
+     *            the options shared by every server
+     * @param count
+     *            the number of servers to launch
+     * @return one result per slot, in slot order; empty if the count is not positive
+     * @throws CloudException
+     *             the shared inputs could not be resolved
+     * @throws InternalException
+     *             the caller was interrupted
+     */
+    public List<LaunchResult> launchManyWithResults(VMLaunchOptions withLaunchOptions, int count)
+            throws CloudException, InternalException {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        APITrace.begin(provider, "launchMany");
+        try {
+            MachineImage template = resolveImage(withLaunchOptions);
+            VirtualMachineProduct product = resolveProduct(withLaunchOptions);
+            int hardwareGroupId = getDefaultHardwareGroupId(withLaunchOptions.getDataCenterId());
+            String post = toCreateServerRequest(withLaunchOptions, template, product, hardwareGroupId).toString();
+            int concurrency = Math.max(1, provider.getIntProperty(LAUNCH_CONCURRENCY, 5));
+
+            LaunchResult[] results = new LaunchResult[count];
+            Deployment[] deployments = new Deployment[count];
+            ArrayList<Future<APIResponse>> submissions = new ArrayList<Future<APIResponse>>();
+            BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+            boolean[] handled = new boolean[count];
+            int accepted = 0;
+
+            try {
+                while (accepted < count) {
+                    while (submissions.size() < count && submissions.size() - accepted < concurrency) {
+                        submissions.add(submitCreate(post, submissions.size(), completed));
+                    }
+                    Integer slot;
+                    try {
+                        slot = completed.poll(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InternalException(e);
+                    }
+                    if (slot == null) {
+                        // a request cancelled before it ran never reports itself
+                        for (int i = 0; i < submissions.size() && slot == null; i++) {
+                            if (!handled[i] && submissions.get(i).isCancelled()) {
+                                slot = i;
+                            }
+                        }
+                    }
+                    if (slot != null && !handled[slot]) {
+                        handled[slot] = true;
+                        accept(slot, submissions.get(slot), results, deployments);
+                        accepted++;
+                    }
+                }
+            } catch (InternalException e) {
+                for (Future<APIResponse> submission : submissions) {
+                    submission.cancel(true);
+                }
+                throw e;
+            }
+
+            // wait for CLC blueprints to hand back the server names
+            long deadline = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 2);
+            ArrayList<String> vmIds = new ArrayList<String>();
+            for (int slot = 0; slot < count; slot++) {
+                if (deployments[slot] == null) {
+                    continue;
+                }
+                try {
+                    long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+                    List<String> servers = deployments[slot].awaitServers(remaining, TimeUnit.MILLISECONDS);
+                    if (servers.isEmpty()) {
+                        results[slot] = LaunchResult.failure(slot, deployments[slot].getRequestId(),
+                                new CloudException("Timed out waiting for deployment "
+                                        + deployments[slot].getRequestId() + " to name the server"));
+                    } else {
+                        results[slot] = LaunchResult.success(slot, deployments[slot].getRequestId(), servers.get(0));
+                        vmIds.add(servers.get(0));
+                    }
+                } catch (CloudException e) {
+                    results[slot] = LaunchResult.failure(slot, deployments[slot].getRequestId(), e);
+                }
+            }
+
+            // now wait for CLC to recognize the servers exist
+            Map<String, VirtualMachine> visible = awaitVisible(vmIds, CalendarWrapper.MINUTE * 2);
+            for (int slot = 0; slot < count; slot++) {
+                String vmId = results[slot].getVirtualMachineId();
+                if (results[slot].isSuccess() && !visible.containsKey(vmId)) {
+                    results[slot] = LaunchResult.notVisible(slot, results[slot].getRequestId(), vmId);
+                }
+            }
+            return Arrays.asList(results);
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Posts one <code>Server/CreateServer</code> request on the provider executor and reports its
+     * slot to the given queue once it has completed, successfully or not.
+     */
+    private Future<APIResponse> submitCreate(final String post, final int slot, final BlockingQueue<Integer> completed)
+            throws InternalException {
+        final APIHandler method = new APIHandler(provider);
+
+        return provider.getExecutor().submit(new Callable<APIResponse>() {
+            @Override
+            public APIResponse call() throws CloudException, InternalException {
+                APITrace.begin(provider, "Server/CreateServer");
+                try {
+                    return method.post("Server/CreateServer/JSON", post);
+                } finally {
+                    APITrace.end();
+                    completed.add(slot);
+                }
+            }
+        });
+    }
+
+    private void accept(int slot, Future<APIResponse> submission, LaunchResult[] results, Deployment[] deployments)
+            throws InternalException {
+        try {
+            APIResponse response = submission.get();
+            response.validate();
+            deployments[slot] = provider.getDeploymentTracker().track(response.getJSON().getInt("RequestID"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        } catch (CancellationException e) {
+            results[slot] = LaunchResult.failure(slot, -1, new CloudException("The launch request was cancelled"));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            results[slot] = LaunchResult.failure(slot, -1, cause instanceof CloudException ? (CloudException) cause
+                    : new CloudException(cause));
+        } catch (CloudException e) {
+            results[slot] = LaunchResult.failure(slot, -1, e);
+        } catch (JSONException e) {
+            results[slot] = LaunchResult.failure(slot, -1, new CloudException(e));
+        }
+    }
+
     @Override
     public Iterable<SpotPriceHistory> listSpotPriceHistories(SPHistoryFilterOptions options) throws CloudException,
             InternalException {
@@ -1087,4 +1543,4 @@ public class Tier3VM implements VirtualMachineSupport {
     public void terminate(String vmId, String explanation) throws InternalException, CloudException {
         terminate(vmId);
     }
-}
\ No newline at end of file
+}
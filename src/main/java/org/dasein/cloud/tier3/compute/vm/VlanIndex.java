@@ -0,0 +1,100 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.network.VLAN;
+import org.dasein.cloud.tier3.Tier3;
+import org.dasein.cloud.tier3.network.vlan.Tier3VlanSupport;
+
+/**
+ * Maps server IP addresses to the VLAN they belong to. CenturyLink does not return the network of a
+ * server, but network names carry the <code>a.b.c</code> prefix of their subnet, so the index is
+ * keyed by those prefixes. Built from the network summaries the VLAN support caches for a minute, which
+ * need no details call per network, so reading servers one at a time does not list the networks for
+ * each of them. A batch of servers shares one index.
+ */
+class VlanIndex {
+    static private final Pattern PREFIX = Pattern.compile("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}");
+
+    static @Nonnull
+    VlanIndex load(@Nonnull Tier3 provider) throws CloudException, InternalException {
+        return new VlanIndex(((Tier3VlanSupport) provider.getNetworkServices().getVlanSupport())
+                .listCachedVlanSummaries());
+    }
+
+    private final List<VLAN> vlans = new ArrayList<VLAN>();
+    private final Map<String, Integer> byPrefix = new HashMap<String, Integer>();
+
+    VlanIndex(@Nonnull Iterable<VLAN> source) {
+        for (VLAN vlan : source) {
+            String name = vlan.getName();
+
+            if (name == null) {
+                continue;
+            }
+            Integer position = vlans.size();
+
+            vlans.add(vlan);
+
+            Matcher m = PREFIX.matcher(name);
+
+            while (m.find()) {
+                if (!byPrefix.containsKey(m.group())) {
+                    byPrefix.put(m.group(), position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the VLAN of a server from its addresses. When several addresses match, the VLAN listed
+     * first wins.
+     *
+     * @param addresses
+     *            the IP addresses of the server
+     * @return the ID of the matching VLAN or <code>null</code> if none matches
+     */
+    @Nullable
+    String getVlanId(@Nonnull Iterable<String> addresses) {
+        int best = -1;
+
+        for (String address : addresses) {
+            Integer position = byPrefix.get(toPrefix(address));
+
+            if (position != null && (best < 0 || position < best)) {
+                best = position;
+            }
+        }
+        if (best < 0) {
+            // names that do not follow the usual pattern still get a substring match
+            for (int i = 0; i < vlans.size() && best < 0; i++) {
+                String name = vlans.get(i).getName();
+
+                for (String address : addresses) {
+                    if (name.contains(toPrefix(address))) {
+                        best = i;
+                        break;
+                    }
+                }
+            }
+        }
+        return (best < 0 ? null : vlans.get(best).getProviderVlanId());
+    }
+
+    static private @Nonnull
+    String toPrefix(@Nonnull String address) {
+        int idx = address.lastIndexOf('.');
+
+        return (idx < 0 ? address : address.substring(0, idx));
+    }
+}
@@ -0,0 +1,107 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.tier3.AccountCache;
+import org.dasein.cloud.tier3.Tier3;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Servers recently read through <code>Server/GetServer</code>, by account and server name, so that
+ * callers polling a server are served locally for a few seconds. The raw JSON of a server is kept
+ * and every lookup returns a fresh copy, so callers are free to change what they convert it to.
+ * <p>
+ * Power operations write the state they put a cached server in right away, as an overlay on a copy
+ * of its JSON, and drop the entry when their deployment completes, so a poll never sees a state
+ * older than the last operation. The TTL is set in ms with the <code>vmStateTtl</code> custom
+ * property, ten seconds by default; 0 disables the cache.
+ * </p>
+ */
+class VmStateCache {
+    static private final String PENDING_STATE = "daseinPendingState";
+
+    static private final AccountCache<String> entries = new AccountCache<String>("vmStates", 1024);
+
+    private final Tier3 provider;
+
+    VmStateCache(@Nonnull Tier3 provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * @return a copy of the cached server, or <code>null</code> if it is not cached or its entry has
+     *         expired
+     */
+    @Nullable
+    JSONObject get(@Nonnull String vmId) throws CloudException {
+        long ttl = getTtl();
+        String json = (ttl > 0 ? entries.get(provider, vmId, ttl) : null);
+
+        try {
+            return (json == null ? null : new JSONObject(json));
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        }
+    }
+
+    void put(@Nonnull String vmId, @Nonnull JSONObject server) throws CloudException {
+        if (getTtl() > 0) {
+            entries.put(provider, vmId, server.toString());
+        }
+    }
+
+    /**
+     * Records the state a power operation has just put a server in, if the server is cached. The
+     * entry is stored again, so it lives for another TTL at most.
+     */
+    void transition(@Nonnull String vmId, @Nonnull VmState state) throws CloudException {
+        JSONObject server = get(vmId);
+
+        if (server != null) {
+            try {
+                server.put(PENDING_STATE, state.name());
+            } catch (JSONException e) {
+                throw new CloudException(e);
+            }
+            put(vmId, server);
+        }
+    }
+
+    void invalidate(@Nonnull String vmId) throws CloudException {
+        entries.remove(provider, vmId);
+    }
+
+    /**
+     * @return a callback dropping the entry of a server, safe to run outside of any context
+     */
+    @Nonnull
+    Runnable invalidator(@Nonnull String vmId) throws CloudException {
+        return entries.remover(provider, vmId);
+    }
+
+    /**
+     * @return the state written by the last power operation on a cached server, or <code>null</code>
+     *         if there was none
+     */
+    static @Nullable
+    VmState getPendingState(@Nonnull JSONObject server) {
+        String state = server.optString(PENDING_STATE, null);
+
+        if (state == null) {
+            return null;
+        }
+        try {
+            return VmState.valueOf(state);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private long getTtl() {
+        return Math.max(0, provider.getIntProperty(Tier3VM.VM_STATE_TTL, 10000));
+    }
+}
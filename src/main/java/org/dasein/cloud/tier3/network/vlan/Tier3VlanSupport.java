@@ -4,7 +4,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
@@ -12,7 +16,9 @@ import org.dasein.cloud.InternalException;
 import org.dasein.cloud.OperationNotSupportedException;
 import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
+import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.Tag;
+import org.dasein.cloud.dc.DataCenter;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.IPVersion;
 import org.dasein.cloud.network.InternetGateway;
@@ -31,13 +37,26 @@ import org.dasein.cloud.network.VLANSupport;
 import org.dasein.cloud.network.VlanCreateOptions;
 import org.dasein.cloud.tier3.APIHandler;
 import org.dasein.cloud.tier3.APIResponse;
+import org.dasein.cloud.tier3.NoContextException;
 import org.dasein.cloud.tier3.Tier3;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.uom.time.Minute;
+import org.dasein.util.uom.time.TimePeriod;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class Tier3VlanSupport implements VLANSupport {
     static private final Logger logger = Tier3.getLogger(Tier3VlanSupport.class);
+
+    /**
+     * Custom property limiting the number of <code>Network/GetNetworkDetails</code> calls a VLAN
+     * listing runs at once.
+     */
+    static public final String DETAIL_CONCURRENCY = "vlanDetailConcurrency";
+
     private Tier3 provider;
 
     public Tier3VlanSupport(Tier3 provider) {
@@ -222,12 +241,69 @@ public class Tier3VlanSupport implements VLANSupport {
         return getCapabilities().getSubnetSupport();
     }
 
+    /**
+     * Loads the full description of the VLAN, CIDR included, with <code>Network/GetNetworkDetails</code>.
+     * VLANs from {@link #listCachedVlanSummaries()} lack their CIDR; this is the call that fetches it.
+     */
     @Override
     public VLAN getVlan(String vlanId) throws CloudException, InternalException {
         if (vlanId == null) {
             return null;
         }
         APITrace.begin(provider, "getVlan");
+        try {
+            return toVlan(getNetworkDetails(vlanId));
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * @return the <code>Network/GetNetworks</code> entries of the account, cached for a minute
+     */
+    private Iterable<JSONObject> getNetworkSummaries() throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+        if (ctx == null) {
+            throw new NoContextException();
+        }
+
+        Cache<JSONObject> cache = Cache.getInstance(provider, "networkSummaries", JSONObject.class,
+                CacheLevel.CLOUD_ACCOUNT, new TimePeriod<Minute>(1, TimePeriod.MINUTE));
+        Iterable<JSONObject> networks = cache.get(ctx);
+
+        if (networks != null) {
+            return networks;
+        }
+        try {
+            APIHandler method = new APIHandler(provider);
+            APIResponse response = method.post("Network/GetNetworks/JSON", "");
+            response.validate();
+
+            ArrayList<JSONObject> list = new ArrayList<JSONObject>();
+            JSONObject json = response.getJSON();
+            if (json.has("Networks")) {
+                JSONArray array = json.getJSONArray("Networks");
+
+                for (int i = 0; i < array.length(); i++) {
+                    list.add(array.getJSONObject(i));
+                }
+            }
+            cache.put(ctx, list);
+            return list;
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        }
+    }
+
+    /**
+     * Fetches the full description of a network, including its subnet and IP address assignments.
+     * 
+     * @param vlanId
+     *            the network name
+     * @return the <code>NetworkDetails</code> object or <code>null</code> if there is no such network
+     */
+    JSONObject getNetworkDetails(String vlanId) throws CloudException, InternalException {
+        APITrace.begin(provider, "getVlanDetails");
         try {
             APIHandler method = new APIHandler(provider);
             JSONObject post = new JSONObject();
@@ -244,9 +320,8 @@ public class Tier3VlanSupport implements VLANSupport {
             }
 
             if (response.getJSON().has("NetworkDetails")) {
-                return toVlan(response.getJSON().getJSONObject("NetworkDetails"));
+                return response.getJSON().getJSONObject("NetworkDetails");
             }
-
             return null;
         } catch (JSONException e) {
             throw new CloudException(e);
@@ -320,20 +395,13 @@ public class Tier3VlanSupport implements VLANSupport {
         }
         APITrace.begin(provider, "listNetworkInterfacesInVLAN");
         try {
-            APIHandler method = new APIHandler(provider);
-            JSONObject post = new JSONObject();
-            post.put("Name", vlanId);
-            APIResponse response = method.post("Network/GetNetworkDetails/JSON", post.toString());
-            response.validate();
-
             ArrayList<NetworkInterface> networks = new ArrayList<NetworkInterface>();
-            if (response.getJSON().has("NetworkDetails")) {
-                networks.add(toNetwork(response.getJSON().getJSONObject("NetworkDetails")));
-            }
+            JSONObject details = getNetworkDetails(vlanId);
 
+            if (details != null) {
+                networks.add(toNetwork(details));
+            }
             return networks;
-        } catch (JSONException e) {
-            throw new CloudException(e);
         } finally {
             APITrace.end();
         }
@@ -396,30 +464,105 @@ public class Tier3VlanSupport implements VLANSupport {
             APIResponse response = method.post("Network/GetNetworks/JSON", "");
             response.validate();
 
-            ArrayList<VLAN> vlans = new ArrayList<VLAN>();
-
+            ArrayList<String> names = new ArrayList<String>();
             JSONObject json = response.getJSON();
             if (json.has("Networks")) {
-                for (int i = 0; i < json.getJSONArray("Networks").length(); i++) {
+                JSONArray networks = json.getJSONArray("Networks");
+
+                for (int i = 0; i < networks.length(); i++) {
+                    names.add(networks.getJSONObject(i).getString("Name"));
+                }
+            }
+            return listVlans(names);
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        } finally {
+            APITrace.end();
+        }
+    }
 
-                    JSONObject post = new JSONObject();
-                    post.put("Name", json.getJSONArray("Networks").getJSONObject(i).getString("Name"));
-                    APIResponse detailResponse = method.post("Network/GetNetworkDetails/JSON", post.toString());
-                    detailResponse.validate();
+    /**
+     * Loads the details of the named networks on the provider executor, at most
+     * {@link #DETAIL_CONCURRENCY} (default 4) at a time, and waits for all of them, so that a failed
+     * call fails the listing before any VLAN is handed out. Networks deleted in the meantime are left
+     * out.
+     * 
+     * @return the VLANs, in the order of the names
+     */
+    private List<VLAN> listVlans(List<String> names) throws CloudException, InternalException {
+        int concurrency = Math.max(1, provider.getIntProperty(DETAIL_CONCURRENCY, 4));
+        ArrayList<Future<JSONObject>> submissions = new ArrayList<Future<JSONObject>>();
+        ArrayList<JSONObject> details = new ArrayList<JSONObject>();
+        int oldest = 0;
 
-                    JSONObject detailJson = detailResponse.getJSON();
-                    if (!detailJson.getBoolean("Success")) {
-                        throw new CloudException(detailJson.getString("Message"));
-                    }
-                    if (detailJson.has("NetworkDetails")) {
-                        vlans.add(toVlan(detailJson.getJSONObject("NetworkDetails")));
-                    }
+        try {
+            for (int i = 0; i < names.size(); i++) {
+                if (i - oldest >= concurrency) {
+                    details.add(acceptDetails(submissions.get(oldest++)));
                 }
+                final String name = names.get(i);
+
+                submissions.add(provider.getExecutor().submit(new Callable<JSONObject>() {
+                    @Override
+                    public JSONObject call() throws CloudException, InternalException {
+                        return getNetworkDetails(name);
+                    }
+                }));
+            }
+            for (; oldest < submissions.size(); oldest++) {
+                details.add(acceptDetails(submissions.get(oldest)));
+            }
+        } finally {
+            for (; oldest < submissions.size(); oldest++) {
+                submissions.get(oldest).cancel(true);
+            }
+        }
+
+        ArrayList<VLAN> vlans = new ArrayList<VLAN>();
+        for (JSONObject network : details) {
+            VLAN vlan = toVlan(network);
+            if (vlan != null) {
+                vlans.add(vlan);
+            }
+        }
+        return vlans;
+    }
+
+    private JSONObject acceptDetails(Future<JSONObject> submission) throws CloudException, InternalException {
+        try {
+            return submission.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CloudException) {
+                throw (CloudException) cause;
             }
+            if (cause instanceof InternalException) {
+                throw (InternalException) cause;
+            }
+            throw new CloudException(cause);
+        }
+    }
 
+    /**
+     * Lists the VLANs from the <code>Network/GetNetworks</code> summaries, which are cached for a
+     * minute, without a details call per network. Meant for lookups made once per server, which would
+     * otherwise list the networks every time.
+     * 
+     * @return the VLANs of the account, with their names and locations but no CIDR; use
+     *         {@link #getVlan(String)} for the details of one of them
+     */
+    public List<VLAN> listCachedVlanSummaries() throws CloudException, InternalException {
+        APITrace.begin(provider, "listCachedVlanSummaries");
+        try {
+            ArrayList<VLAN> vlans = new ArrayList<VLAN>();
+
+            for (JSONObject network : getNetworkSummaries()) {
+                vlans.add(toSummaryVlan(network));
+            }
             return vlans;
-        } catch (JSONException e) {
-            throw new CloudException(e);
         } finally {
             APITrace.end();
         }
@@ -514,6 +657,40 @@ public class Tier3VlanSupport implements VLANSupport {
         }
     }
 
+    private VLAN toSummaryVlan(JSONObject ob) throws CloudException, InternalException {
+        if (ob == null || !ob.has("Name")) {
+            return null;
+        }
+        try {
+            VLAN vlan = new VLAN();
+            String location = (ob.has("Location") && !ob.isNull("Location") ? ob.getString("Location") : null);
+
+            vlan.setProviderVlanId(ob.getString("Name"));
+            vlan.setProviderOwnerId(provider.getContext().getAccountNumber());
+            if (location != null) {
+                DataCenter dc = provider.getDataCenterServices().getDataCenter(location);
+
+                if (dc != null) {
+                    vlan.setProviderRegionId(dc.getRegionId());
+                }
+                vlan.setProviderDataCenterId(location);
+            }
+
+            vlan.setCurrentState(VLANState.AVAILABLE);
+            vlan.setName(ob.getString("Name"));
+            vlan.setDescription(ob.optString("Description"));
+
+            vlan.setSupportedTraffic(IPVersion.IPV4);
+            vlan.setDnsServers(new String[0]);
+            vlan.setNtpServers(new String[0]);
+            vlan.setTags(Collections.<String, String> emptyMap());
+
+            return vlan;
+        } catch (JSONException e) {
+            throw new CloudException(e);
+        }
+    }
+
     private NetworkInterface toNetwork(JSONObject ob) throws CloudException, InternalException {
         if (ob == null) {
             return null;
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class APIExecutorTest {
+    static private class CountingProvider extends Tier3 {
+        final AtomicInteger holds = new AtomicInteger();
+
+        @Override
+        public void hold() {
+            holds.incrementAndGet();
+            super.hold();
+        }
+
+        @Override
+        public void release() {
+            holds.decrementAndGet();
+            super.release();
+        }
+    }
+
+    static private void awaitEquals(int expected, Callable<Integer> actual) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000L;
+
+        while (actual.call() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(expected, actual.call().intValue());
+    }
+
+    private CountingProvider provider;
+    private APIExecutor executor;
+    private CountDownLatch gate;
+
+    @Before
+    public void setUp() {
+        provider = new CountingProvider();
+        executor = new APIExecutor(provider, 1, 1, false);
+        gate = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executor.shutdown();
+    }
+
+    private Future<String> submitBlocker() throws Exception {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                gate.await();
+                return "done";
+            }
+        });
+    }
+
+    private Future<String> submitValue(final String value) throws Exception {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return value;
+            }
+        });
+    }
+
+    private void awaitIdle() throws Exception {
+        awaitEquals(2, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executor.getAvailableSlots();
+            }
+        });
+        awaitEquals(0, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return provider.holds.get();
+            }
+        });
+    }
+
+    @Test
+    public void completedTaskReleasesSlotAndHold() throws Exception {
+        assertEquals("value", submitValue("value").get());
+        awaitIdle();
+    }
+
+    @Test
+    public void failedTaskReleasesSlotAndHold() throws Exception {
+        Future<String> failing = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                throw new IllegalStateException("boom");
+            }
+        });
+
+        try {
+            failing.get();
+            fail("The task should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        awaitIdle();
+    }
+
+    @Test
+    public void cancelledQueuedTaskReleasesSlotAndHold() throws Exception {
+        Future<String> blocker = submitBlocker();
+        Future<String> queued = submitValue("queued");
+
+        assertEquals(0, executor.getAvailableSlots());
+        assertEquals(2, provider.holds.get());
+        assertTrue(queued.cancel(false));
+        assertEquals(1, executor.getAvailableSlots());
+        assertEquals(1, provider.holds.get());
+        gate.countDown();
+        assertEquals("done", blocker.get());
+        awaitIdle();
+    }
+
+    @Test(timeout = 10000L)
+    public void repeatedCancellationDoesNotExhaustSlots() throws Exception {
+        Future<String> blocker = submitBlocker();
+
+        // with one free slot, a single leaked slot would block the next submit forever
+        for (int i = 0; i < 50; i++) {
+            submitValue("queued " + i).cancel(false);
+        }
+        gate.countDown();
+        blocker.get();
+        assertEquals("after", submitValue("after").get());
+        awaitIdle();
+    }
+
+    @Test
+    public void shutdownCancelsQueuedTasks() throws Exception {
+        submitBlocker();
+        Future<String> queued = submitValue("queued");
+
+        executor.shutdown();
+        assertTrue(queued.isCancelled());
+        awaitIdle();
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class APIResponseTest {
+    /**
+     * Counts the notifications it gets and remembers whether the response had failed by then.
+     */
+    static private class Recorder implements APIResponse.Listener {
+        final List<String> outcomes = new ArrayList<String>();
+
+        @Override
+        public void onResponse(APIResponse response) {
+            assertTrue(response.isDone());
+            try {
+                response.getJSON();
+                outcomes.add("received");
+            } catch (CloudException e) {
+                outcomes.add(response.isCancelled() ? "cancelled" : "failed");
+            }
+        }
+    }
+
+    /**
+     * Serves pages with a "page" field up to the last page, failing the given page if any.
+     */
+    static private class Pages implements APIHandler.PageFetcher {
+        final AtomicInteger fetched = new AtomicInteger();
+        private final int last;
+        private final int failing;
+        private final RuntimeException unchecked;
+
+        Pages(int last, int failing, RuntimeException unchecked) {
+            this.last = last;
+            this.failing = failing;
+            this.unchecked = unchecked;
+        }
+
+        @Override
+        public String fetch(APIResponse response, String paginationId, int page) throws InternalException,
+                CloudException {
+            fetched.incrementAndGet();
+            if (page > 1) {
+                assertEquals("pid", paginationId);
+            }
+            if (page == failing) {
+                if (unchecked != null) {
+                    throw unchecked;
+                }
+                throw new CloudException("page " + page + " failed");
+            }
+            try {
+                response.receive(APIHandler.OK, new JSONObject().put("page", page), page == last);
+            } catch (Exception e) {
+                throw new CloudException(e);
+            }
+            return (page == last ? null : "pid");
+        }
+    }
+
+    static private void assertFails(APIResponse response, String message) {
+        try {
+            response.getJSON(5, TimeUnit.SECONDS);
+            fail("The page should have failed");
+        } catch (CloudException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+        assertTrue(response.isDone());
+    }
+
+    @Test
+    public void fetchesEveryPage() throws Exception {
+        APIResponse first = new APIResponse();
+        Pages pages = new Pages(3, -1, null);
+
+        APIHandler.fetchPages(first, pages);
+        assertEquals(3, pages.fetched.get());
+
+        APIResponse current = first;
+
+        for (int page = 1; page <= 3; page++) {
+            assertNotNull(current);
+            assertEquals(page, current.getJSON(5, TimeUnit.SECONDS).getInt("page"));
+            current = current.next(5, TimeUnit.SECONDS);
+        }
+        assertNull(current);
+    }
+
+    @Test
+    public void firstPageFailureIsReportedOnFirstPage() throws Exception {
+        APIResponse first = new APIResponse();
+
+        APIHandler.fetchPages(first, new Pages(3, 1, null));
+        assertFails(first, "page 1 failed");
+    }
+
+    @Test
+    public void laterPageFailureIsReportedOnThatPage() throws Exception {
+        APIResponse first = new APIResponse();
+        Pages pages = new Pages(3, 2, null);
+
+        APIHandler.fetchPages(first, pages);
+        assertEquals(2, pages.fetched.get());
+        assertEquals(1, first.getJSON(5, TimeUnit.SECONDS).getInt("page"));
+
+        APIResponse second = first.next(5, TimeUnit.SECONDS);
+
+        assertNotNull(second);
+        assertFails(second, "page 2 failed");
+        try {
+            second.next(5, TimeUnit.SECONDS);
+            fail("Walking past a failed page should fail");
+        } catch (CloudException expected) {
+            // the failed page has no successor
+        }
+    }
+
+    @Test
+    public void uncheckedFailureIsReportedOnThatPage() throws Exception {
+        APIResponse first = new APIResponse();
+
+        APIHandler.fetchPages(first, new Pages(3, 3, new IllegalStateException("broken page")));
+
+        APIResponse third = first.next(5, TimeUnit.SECONDS).next(5, TimeUnit.SECONDS);
+
+        assertNotNull(third);
+        assertFails(third, "broken page");
+    }
+
+    @Test
+    public void cancelledPageStopsFetching() throws Exception {
+        final APIResponse first = new APIResponse();
+        final AtomicInteger fetched = new AtomicInteger();
+
+        APIHandler.fetchPages(first, new APIHandler.PageFetcher() {
+            @Override
+            public String fetch(APIResponse response, String paginationId, int page) {
+                fetched.incrementAndGet();
+                response.receive(APIHandler.OK, new JSONObject(), false);
+                response.cancel();
+                return "pid";
+            }
+        });
+        assertEquals(1, fetched.get());
+        assertTrue(first.isCancelled());
+        try {
+            first.next(5, TimeUnit.SECONDS);
+            fail("A cancelled response has no next page");
+        } catch (CloudException expected) {
+            // cancelled before the next page was linked
+        }
+    }
+
+    @Test
+    public void listenerFiresOnceWhenReceived() {
+        APIResponse response = new APIResponse();
+        Recorder recorder = new Recorder();
+
+        response.addListener(recorder);
+        assertTrue(recorder.outcomes.isEmpty());
+        response.receive(APIHandler.OK, new JSONObject(), true);
+        response.receive(APIHandler.OK, new JSONObject(), true);
+        response.cancel();
+        assertEquals(1, recorder.outcomes.size());
+        assertEquals("received", recorder.outcomes.get(0));
+    }
+
+    @Test
+    public void listenerFiresImmediatelyWhenAlreadySettled() {
+        APIResponse response = new APIResponse();
+        Recorder recorder = new Recorder();
+
+        response.receive(new CloudException("broken"));
+        response.addListener(recorder);
+        assertEquals(1, recorder.outcomes.size());
+        assertEquals("failed", recorder.outcomes.get(0));
+    }
+
+    @Test
+    public void listenerFiresOnCancellation() {
+        APIResponse response = new APIResponse();
+        Recorder recorder = new Recorder();
+
+        response.addListener(recorder);
+        response.cancel();
+        assertEquals(1, recorder.outcomes.size());
+        assertEquals("cancelled", recorder.outcomes.get(0));
+    }
+
+    @Test
+    public void failingListenerDoesNotStopOthers() {
+        APIResponse response = new APIResponse();
+        Recorder recorder = new Recorder();
+
+        response.addListener(new APIResponse.Listener() {
+            @Override
+            public void onResponse(APIResponse response) {
+                throw new IllegalStateException("listener bug");
+            }
+        });
+        response.addListener(recorder);
+        response.receive(APIHandler.OK, new JSONObject(), true);
+        assertEquals(1, recorder.outcomes.size());
+    }
+
+    @Test
+    public void timedWaitFailsInsteadOfBlocking() {
+        try {
+            new APIResponse().getJSON(10, TimeUnit.MILLISECONDS);
+            fail("Nothing was received");
+        } catch (CloudException expected) {
+            // timed out
+        }
+    }
+}
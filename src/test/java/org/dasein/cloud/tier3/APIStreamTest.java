@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2012-2013 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.tier3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpPost;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class APIStreamTest {
+    static private APIStream open(String json) throws CloudException {
+        return new APIStream(new HttpPost("http://localhost/"), null, new StringReader(json), "Servers");
+    }
+
+    static private List<String> names(APIStream stream) throws Exception {
+        List<String> names = new ArrayList<String>();
+        JSONObject json;
+
+        while ((json = stream.nextObject()) != null) {
+            names.add(json.getString("Name"));
+        }
+        return names;
+    }
+
+    static private String servers(int count) {
+        StringBuilder json = new StringBuilder("{\"Success\":true,\"Servers\":[");
+
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"Name\":\"s").append(i).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Serves the same response on every open and counts the opens.
+     */
+    static private class Names extends APIStreamIterable<String> {
+        private final String json;
+        int opened;
+
+        Names(String json) {
+            this.json = json;
+        }
+
+        @Override
+        protected APIStream open() throws CloudException, InternalException {
+            opened++;
+            return APIStreamTest.open(json);
+        }
+
+        @Override
+        protected String toResource(JSONObject json) throws CloudException, InternalException {
+            try {
+                return json.getString("Name");
+            } catch (Exception e) {
+                throw new CloudException(e);
+            }
+        }
+    }
+
+    static private int count(Iterable<String> names) {
+        int count = 0;
+
+        for (Iterator<String> it = names.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void readsHeaderAndElements() throws Exception {
+        APIStream stream = open("{\"Success\":true,\"Message\":\"ok\",\"Servers\":[{\"Name\":\"a\"},{\"Name\":\"b\"}]}");
+
+        assertTrue(stream.getHeader().getBoolean("Success"));
+        assertEquals("ok", stream.getHeader().getString("Message"));
+        stream.validate();
+
+        List<String> names = names(stream);
+
+        assertEquals(2, names.size());
+        assertEquals("a", names.get(0));
+        assertEquals("b", names.get(1));
+        assertNull(stream.nextObject());
+    }
+
+    @Test
+    public void readsEmptyArray() throws Exception {
+        APIStream stream = open("{\"Success\":true,\"Servers\":[],\"Message\":\"none\"}");
+
+        assertTrue(names(stream).isEmpty());
+        assertEquals("none", stream.getHeader().getString("Message"));
+    }
+
+    @Test
+    public void readsFieldsAfterArray() throws Exception {
+        APIStream stream = open("{\"Servers\":[{\"Name\":\"a\"}],\"Success\":true,\"StatusCode\":0}");
+
+        assertFalse(stream.getHeader().has("Success"));
+        assertEquals(1, names(stream).size());
+        assertTrue(stream.getHeader().getBoolean("Success"));
+        assertEquals(0, stream.getHeader().getInt("StatusCode"));
+    }
+
+    @Test
+    public void reportsFailure() throws Exception {
+        APIStream stream = open("{\"Success\":false,\"Message\":\"denied\",\"Servers\":null}");
+
+        try {
+            stream.validate();
+            fail("The failure should be reported");
+        } catch (CloudException e) {
+            assertEquals("denied", e.getMessage());
+        }
+        assertNull(stream.nextObject());
+    }
+
+    @Test
+    public void reportsFailureAfterArray() throws Exception {
+        APIStream stream = open("{\"Servers\":[{\"Name\":\"a\"}],\"Success\":false,\"Message\":\"partial\"}");
+
+        assertEquals("a", stream.nextObject().getString("Name"));
+        try {
+            stream.nextObject();
+            fail("The failure should be reported");
+        } catch (CloudException e) {
+            assertEquals("partial", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedResponse() throws Exception {
+        try {
+            open("[]");
+            fail("A response that is not an object should be rejected");
+        } catch (CloudException expected) {
+        }
+
+        APIStream stream = open("{\"Success\":true,\"Servers\":[1]}");
+
+        try {
+            stream.nextObject();
+            fail("An element that is not an object should be rejected");
+        } catch (CloudException expected) {
+        }
+        assertNull(stream.nextObject());
+    }
+
+    @Test
+    public void replaysShortStream() throws Exception {
+        Names names = new Names(servers(3));
+
+        names.start();
+        assertEquals(3, count(names));
+        assertEquals(3, count(names));
+        assertEquals(1, names.opened);
+    }
+
+    @Test
+    public void reopensLongStream() throws Exception {
+        Names names = new Names(servers(APIStreamIterable.REPLAY_LIMIT + 1));
+
+        names.start();
+        assertEquals(APIStreamIterable.REPLAY_LIMIT + 1, count(names));
+        assertEquals(APIStreamIterable.REPLAY_LIMIT + 1, count(names));
+        assertEquals(2, names.opened);
+    }
+
+    @Test
+    public void reopensPartlyReadStream() throws Exception {
+        Names names = new Names(servers(3));
+        APIStreamIterable<String>.StreamIterator it = names.start().iterator();
+
+        assertEquals("s0", it.next());
+        it.close();
+        assertEquals(3, count(names));
+        assertEquals(2, names.opened);
+        assertEquals(3, count(names));
+        assertEquals(2, names.opened);
+    }
+}
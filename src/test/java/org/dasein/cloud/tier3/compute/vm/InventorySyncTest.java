@@ -0,0 +1,134 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.tier3.Tier3;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class InventorySyncTest {
+    /**
+     * Converts servers to bare virtual machines and counts the conversions.
+     */
+    static private class Sync extends InventorySync {
+        int converted;
+
+        Sync() {
+            super(new Tier3(), null);
+        }
+
+        @Override
+        VirtualMachine toVirtualMachine(JSONObject json) throws CloudException, InternalException {
+            VirtualMachine vm = new VirtualMachine();
+
+            converted++;
+            vm.setProviderVirtualMachineId(json.optString("Name"));
+            return vm;
+        }
+
+        Delta sync(JSONObject... listing) throws Exception {
+            final Iterator<JSONObject> it = Arrays.asList(listing).iterator();
+
+            return apply(new Listing() {
+                @Override
+                public JSONObject next() {
+                    return (it.hasNext() ? it.next() : null);
+                }
+            });
+        }
+    }
+
+    static private JSONObject server(String name, String powerState) throws Exception {
+        return new JSONObject().put("Name", name).put("Status", "Active").put("PowerState", powerState);
+    }
+
+    static private List<String> names(List<VirtualMachine> vms) {
+        List<String> names = new ArrayList<String>();
+
+        for (VirtualMachine vm : vms) {
+            names.add(vm.getProviderVirtualMachineId());
+        }
+        return names;
+    }
+
+    @Test
+    public void firstSyncAddsEveryServer() throws Exception {
+        Sync sync = new Sync();
+        InventorySync.Delta delta = sync.sync(server("WEB01", "Started"), server("WEB02", "Stopped"));
+
+        assertEquals(Arrays.asList("WEB01", "WEB02"), names(delta.getAdded()));
+        assertTrue(delta.getChanged().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+        assertEquals(2, delta.getTotal());
+    }
+
+    @Test
+    public void unchangedServersAreNotConvertedAgain() throws Exception {
+        Sync sync = new Sync();
+
+        sync.sync(server("WEB01", "Started"), server("WEB02", "Stopped"));
+        InventorySync.Delta delta = sync.sync(server("WEB02", "Stopped"), server("WEB01", "Started"));
+
+        assertTrue(delta.isEmpty());
+        assertEquals(2, delta.getTotal());
+        assertEquals(2, sync.converted);
+    }
+
+    @Test
+    public void fieldOrderDoesNotMatter() throws Exception {
+        Sync sync = new Sync();
+
+        sync.sync(new JSONObject().put("Name", "WEB01").put("Cpu", 2).put("MemoryGB", 4));
+        InventorySync.Delta delta = sync.sync(new JSONObject().put("MemoryGB", 4).put("Cpu", 2).put("Name", "WEB01"));
+
+        assertTrue(delta.isEmpty());
+    }
+
+    @Test
+    public void reportsAddedChangedAndRemoved() throws Exception {
+        Sync sync = new Sync();
+        InventorySync.Delta first = sync.sync(server("WEB01", "Started"), server("WEB02", "Started"),
+                server("WEB03", "Started"));
+        VirtualMachine web03 = first.getAdded().get(2);
+        InventorySync.Delta delta = sync.sync(server("WEB01", "Started"), server("WEB02", "Stopped"),
+                server("WEB04", "Started"));
+
+        assertEquals(Arrays.asList("WEB04"), names(delta.getAdded()));
+        assertEquals(Arrays.asList("WEB02"), names(delta.getChanged()));
+        assertEquals(1, delta.getRemoved().size());
+        assertSame(web03, delta.getRemoved().get(0));
+        assertEquals(3, delta.getTotal());
+        assertEquals(5, sync.converted);
+    }
+
+    @Test
+    public void serversWithoutNameAreSkipped() throws Exception {
+        Sync sync = new Sync();
+        InventorySync.Delta delta = sync.sync(new JSONObject().put("Status", "Active"), server("WEB01", "Started"));
+
+        assertEquals(Arrays.asList("WEB01"), names(delta.getAdded()));
+        assertEquals(1, delta.getTotal());
+    }
+
+    @Test
+    public void resetReportsEveryServerAgain() throws Exception {
+        Sync sync = new Sync();
+
+        sync.sync(server("WEB01", "Started"));
+        sync.reset();
+        InventorySync.Delta delta = sync.sync(server("WEB01", "Started"));
+
+        assertEquals(Arrays.asList("WEB01"), names(delta.getAdded()));
+        assertTrue(delta.getRemoved().isEmpty());
+    }
+}
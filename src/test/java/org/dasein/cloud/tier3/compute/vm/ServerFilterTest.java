@@ -0,0 +1,91 @@
+package org.dasein.cloud.tier3.compute.vm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.tier3.compute.Tier3ComputeTranslations;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class ServerFilterTest {
+    static private final Tier3ComputeTranslations translations = new Tier3ComputeTranslations();
+
+    static private JSONObject server(String name, String status, String powerState) throws Exception {
+        JSONObject json = new JSONObject();
+
+        if (name != null) {
+            json.put("Name", name);
+        }
+        json.put("Status", status);
+        json.put("PowerState", powerState);
+        return json;
+    }
+
+    @Test
+    public void acceptsEverythingWithoutOptions() throws Exception {
+        ServerFilter filter = new ServerFilter(null, translations);
+
+        assertTrue(filter.accepts(server("WEB01", "Active", "Started")));
+        assertNull(filter.getHardwareGroupId());
+    }
+
+    @Test
+    public void regexRejectsOtherNames() throws Exception {
+        ServerFilter filter = new ServerFilter(VMFilterOptions.getInstance("WEB.*"), translations);
+
+        assertTrue(filter.accepts(server("WEB01", "Active", "Started")));
+        assertFalse(filter.accepts(server("DB01", "Active", "Started")));
+    }
+
+    @Test
+    public void regexMustMatchTheWholeName() throws Exception {
+        ServerFilter filter = new ServerFilter(VMFilterOptions.getInstance("WEB"), translations);
+
+        assertFalse(filter.accepts(server("WEB01", "Active", "Started")));
+    }
+
+    @Test
+    public void regexLeavesServersWithoutNameToOptions() throws Exception {
+        ServerFilter filter = new ServerFilter(VMFilterOptions.getInstance("WEB.*"), translations);
+
+        assertTrue(filter.accepts(server(null, "Active", "Started")));
+        assertTrue(filter.accepts(server("", "Active", "Started")));
+    }
+
+    @Test
+    public void matchingAnyChecksNothing() throws Exception {
+        ServerFilter filter = new ServerFilter(VMFilterOptions.getInstance(true, "WEB.*").withVmStates(
+                VmState.RUNNING), translations);
+
+        assertTrue(filter.accepts(server("DB01", "Active", "Stopped")));
+    }
+
+    @Test
+    public void statesRejectOtherStates() throws Exception {
+        ServerFilter filter = new ServerFilter(VMFilterOptions.getInstance().withVmStates(VmState.RUNNING),
+                translations);
+
+        assertTrue(filter.accepts(server("WEB01", "Active", "Started")));
+        assertFalse(filter.accepts(server("WEB02", "Active", "Stopped")));
+        assertFalse(filter.accepts(server("WEB03", "Archived", "Stopped")));
+    }
+
+    @Test
+    public void hardwareGroupTagScopesTheServers() throws Exception {
+        ServerFilter filter = new ServerFilter(VMFilterOptions.getInstance().withTags(
+                Collections.singletonMap("HardwareGroupID", "42")), translations);
+        JSONObject inGroup = server("WEB01", "Active", "Started").put("HardwareGroupID", 42);
+        JSONObject elsewhere = server("WEB02", "Active", "Started").put("HardwareGroupID", 7);
+
+        assertEquals("42", filter.getHardwareGroupId());
+        assertTrue(filter.accepts(inGroup));
+        assertFalse(filter.accepts(elsewhere));
+        assertFalse(filter.accepts(server("WEB03", "Active", "Started")));
+    }
+}